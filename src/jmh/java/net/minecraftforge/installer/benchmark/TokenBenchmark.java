@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.minecraftforge.installer.json.Util;
+import net.minecraftforge.installer.test.LegacyTokens;
+
+/*
+ * Resolves every arg of a large processor list, the way PostProcessors does each time it checks, hashes or runs them.
+ * 'legacy' is the old replaceTokens that parsed the pattern on every call, shared with the tests as LegacyTokens.
+ * Run with: gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBenchmark {
+    @Param({"20", "200"})
+    public int processors;
+
+    private final Map<String, Supplier<String>> tokens = new HashMap<>();
+    private final List<String> args = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        String[] keys = {"SIDE", "MINECRAFT_JAR", "MINECRAFT_VERSION", "ROOT", "INSTALLER", "LIBRARY_DIR", "MAPPINGS", "MOJMAPS", "MC_SLIM", "MC_EXTRA", "MC_SRG", "PATCHED", "BINPATCH"};
+        for (String key : keys) {
+            String value = "/home/user/.minecraft/libraries/net/minecraft/client/1.20.1/" + key.toLowerCase() + ".jar";
+            tokens.put(key, () -> value);
+        }
+
+        // Roughly what a Forge install profile looks like, repeated to make a large list
+        for (int x = 0; x < processors; x++) {
+            args.add("--task");
+            args.add("MCP_DATA");
+            args.add("--input");
+            args.add("[de.oceanlabs.mcp:mcp_config:1.20.1-20230612.114412@zip]");
+            args.add("--output");
+            args.add("{MAPPINGS}");
+            args.add("--key");
+            args.add("mappings");
+            args.add("--jar");
+            args.add("{MINECRAFT_JAR}");
+            args.add("--srg");
+            args.add("{MC_SRG}");
+            args.add("--slim");
+            args.add("{MC_SLIM}");
+            args.add("--extra");
+            args.add("{MC_EXTRA}");
+            args.add("--patch");
+            args.add("{BINPATCH}");
+            args.add("{ROOT}/libraries/net/minecraft/{SIDE}/{MINECRAFT_VERSION}/{SIDE}-{MINECRAFT_VERSION}-slim.jar");
+            args.add("'{LITERAL}' with \\'escapes\\'");
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) {
+        for (String arg : args)
+            bh.consume(Util.replaceTokens(tokens, arg));
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        for (String arg : args)
+            bh.consume(LegacyTokens.replaceTokens(tokens, arg));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * A cache of downloaded files that can be shared between every installation on this machine.
+ * Files are stored by their SHA-1, so anything that knows the hash of what it wants can use it without caring where it came from.
+ *
+ * Layout:
+ *   objects/ab/abcdef0123...       The file itself
+ *   objects/ab/abcdef0123....used  Empty marker, its modified time is the last time the file was used.
+ *                                  Kept separate because the object may be hard linked into installs, and touching it would change their timestamps too.
+ *   processors/ab/abcdef0123...    Result of running a processor, keyed by the hash of its inputs. See PostProcessors.getCacheKey
+ *                                  Lists the SHA-1 of each of its outputs, which are stored as normal objects.
+ *                                  These are tiny, so are never trimmed. If an output has been evicted the processor just runs again.
+ *
+ * This is opt-in, using the --cache argument or the forge.installer.cacheDir system property.
+ * When it grows past its size limit the least recently used files are removed.
+ */
+public class ArtifactCache {
+    // Size limit in megabytes when one isn't specified with --cacheSize
+    public static final long DEFAULT_SIZE = Long.getLong("forge.installer.cacheSize", 4096);
+    private static ArtifactCache INSTANCE = null;
+    private static boolean checked = false;
+
+    private final File root;
+    private final long maxSize;
+
+    private ArtifactCache(File root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    public static synchronized void configure(File root, long maxSizeMB) {
+        checked = true;
+        INSTANCE = root == null ? null : new ArtifactCache(root, maxSizeMB * 1024 * 1024);
+    }
+
+    /*
+     * Returns the shared cache, or null if it isn't enabled.
+     */
+    public static synchronized ArtifactCache get() {
+        if (!checked) {
+            String dir = System.getProperty("forge.installer.cacheDir");
+            configure(dir == null || dir.isEmpty() ? null : new File(dir), DEFAULT_SIZE);
+        }
+        return INSTANCE;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    private File getFile(String sha1) {
+        sha1 = sha1.toLowerCase(Locale.ENGLISH);
+        return new File(root, "objects/" + sha1.substring(0, 2) + '/' + sha1);
+    }
+
+    private File getProcessorFile(String key) {
+        return new File(root, "processors/" + key.substring(0, 2) + '/' + key);
+    }
+
+    private static File getMarker(File object) {
+        return new File(object.getParentFile(), object.getName() + ".used");
+    }
+
+    public boolean contains(String sha1) {
+        return sha1 != null && sha1.length() > 2 && getFile(sha1).isFile();
+    }
+
+    /*
+     * Places the cached file with the specified hash at the target location, using the configured Materializer mode.
+     * Symbolic links are made as hard links instead, as a symbolic link would break when the object is evicted.
+     *
+     * The object is always hashed, even when linking. A hard linked file in an install is the same file as the object, so anything
+     * that writes to it in place corrupts the cache, and we don't want to spread that to every install after it.
+     * Hard links are also made read only, which protects the object too, so that doesn't happen by accident.
+     */
+    public boolean materialize(String sha1, File target) {
+        if (!contains(sha1))
+            return false;
+
+        File cached = getFile(sha1);
+        touch(cached);
+        target.getParentFile().mkdirs();
+        try {
+            Materializer mode = Materializer.MODE == Materializer.SYMLINK ? Materializer.HARDLINK : Materializer.MODE;
+            Materializer used = mode.materialize(cached, target, sha1);
+            if (used == Materializer.HARDLINK)
+                target.setReadOnly();
+            if (used != null)
+                return true;
+            System.out.println("Cached file " + cached + " is corrupt, removing it");
+            cached.delete();
+            getMarker(cached).delete();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        target.delete();
+        return false;
+    }
+
+    /*
+     * Adds a file that has already been validated against the specified hash.
+     * It is copied to a temp file and moved into place, so other installers never see a half written object.
+     */
+    public void put(String sha1, File file) {
+        if (sha1 == null || sha1.length() <= 2 || contains(sha1))
+            return;
+
+        File cached = getFile(sha1);
+        File temp = new File(cached.getParentFile(), cached.getName() + '.' + Thread.currentThread().getId() + ".tmp");
+        try {
+            cached.getParentFile().mkdirs();
+            Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            touch(cached);
+        } catch (IOException e) {
+            System.out.println("Failed to add " + file + " to cache: " + e.toString());
+            temp.delete();
+        }
+    }
+
+    /*
+     * Returns the hashes of the outputs of a processor run with the specified key, or null if we don't have one.
+     */
+    public List<String> getProcessorOutputs(String key) {
+        File file = getProcessorFile(key);
+        if (!file.isFile())
+            return null;
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Failed to read processor cache " + file + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /*
+     * Stores the outputs of a processor, which must already have been validated against the specified hashes.
+     */
+    public void putProcessorOutputs(String key, List<File> files, List<String> sha1s) {
+        for (int x = 0; x < files.size(); x++)
+            put(sha1s.get(x), files.get(x));
+
+        File file = getProcessorFile(key);
+        File temp = new File(file.getParentFile(), file.getName() + '.' + Thread.currentThread().getId() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            Files.write(temp.toPath(), sha1s, StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Failed to write processor cache " + file + ": " + e.toString());
+            temp.delete();
+        }
+    }
+
+    private void touch(File cached) {
+        File marker = getMarker(cached);
+        try {
+            if (!marker.exists())
+                marker.createNewFile();
+            marker.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            // Only used for eviction order, not worth failing over
+        }
+    }
+
+    /*
+     * Removes the least recently used files until the cache fits in its size limit.
+     */
+    public void trim() {
+        File[] dirs = new File(root, "objects").listFiles(File::isDirectory);
+        if (dirs == null)
+            return;
+
+        List<File> objects = new ArrayList<>();
+        long total = 0;
+        for (File dir : dirs) {
+            File[] files = dir.listFiles(f -> f.isFile() && f.getName().indexOf('.') == -1);
+            if (files == null)
+                continue;
+            for (File file : files) {
+                objects.add(file);
+                total += file.length();
+            }
+        }
+
+        if (total <= maxSize)
+            return;
+
+        objects.sort(Comparator.comparingLong(f -> {
+            File marker = getMarker(f);
+            return marker.exists() ? marker.lastModified() : f.lastModified();
+        }));
+
+        int removed = 0;
+        for (File file : objects) {
+            if (total <= maxSize)
+                break;
+            long size = file.length();
+            file.setWritable(true); // Windows won't delete read only files
+            if (file.delete()) {
+                getMarker(file).delete();
+                total -= size;
+                removed++;
+            }
+        }
+        System.out.println("Removed " + removed + " files from artifact cache " + root + " to stay under " + (maxSize / 1024 / 1024) + "MB");
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import net.minecraftforge.installer.actions.ProgressCallback;
+
+/*
+ * Decides how ZipWriter compresses each new entry, and keeps track of what that saved.
+ * Most of what goes into the offline installer is jars, which are already compressed, so deflating them again costs time
+ * for next to nothing, and costs again when they're inflated on install.
+ *
+ * Entries are grouped by their extension. Text is always deflated as hard as it can be, as it's small and shrinks well.
+ * Anything else has a sample test compressed, and is stored as is if it doesn't compress below the store ratio.
+ */
+public class CompressionPolicy {
+    // How much of the start, and end if we can get at it, of each entry is test compressed
+    static final int SAMPLE_SIZE = 64 * 1024;
+    // Entries whose sample doesn't compress below this fraction of its size are stored, unless the policy is given its own
+    public static final double STORE_RATIO = Double.parseDouble(System.getProperty("forge.installer.storeRatio", "0.95"));
+
+    public enum Kind {
+        // Already compressed, if one does turn out to be worth deflating most of what there is to gain is found quickly
+        ARCHIVE(true, Deflater.DEFAULT_COMPRESSION, "jar", "zip", "gz", "tgz", "xz", "lzma", "bz2", "7z", "png", "jpg", "jpeg", "gif", "ogg"),
+        TEXT(false, Deflater.BEST_COMPRESSION, "json", "txt", "cfg", "properties", "xml", "mf", "tsrg", "srg", "csrg", "tiny", "csv", "sha1", "md5"),
+        OTHER(true, Deflater.DEFAULT_COMPRESSION);
+
+        private final boolean sample;
+        private final int level;
+        private final String[] extensions;
+
+        private Kind(boolean sample, int level, String... extensions) {
+            this.sample = sample;
+            this.level = level;
+            this.extensions = extensions;
+        }
+
+        public static Kind of(String name) {
+            int idx = name.lastIndexOf('.');
+            if (idx == -1 || idx < name.lastIndexOf('/'))
+                return OTHER;
+            String ext = name.substring(idx + 1).toLowerCase(Locale.ENGLISH);
+            for (Kind kind : values()) {
+                for (String e : kind.extensions) {
+                    if (e.equals(ext))
+                        return kind;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    // Used when there is no policy, the same as ZipOutputStream would do
+    static final Choice DEFLATE = new Choice(Kind.OTHER, 8, Deflater.DEFAULT_COMPRESSION, 0, 0, 0);
+
+    private final Map<Kind, Stats> stats = new EnumMap<>(Kind.class);
+    private final double storeRatio;
+
+    public CompressionPolicy() {
+        this(STORE_RATIO);
+    }
+
+    public CompressionPolicy(double storeRatio) {
+        this.storeRatio = storeRatio;
+        for (Kind kind : Kind.values())
+            stats.put(kind, new Stats());
+    }
+
+    /*
+     * Picks how to write an entry from its name and a sample of its data.
+     */
+    Choice choose(String name, byte[] sample, int length) {
+        Kind kind = Kind.of(name);
+        if (length == 0)
+            return new Choice(kind, 0, 0, 0, 0, 0);
+        if (!kind.sample)
+            return new Choice(kind, 8, kind.level, 0, 0, 0);
+
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(kind.level, true);
+        long compressed = 0;
+        try {
+            byte[] out = new byte[Math.min(length + 64, SAMPLE_SIZE)];
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            while (!deflater.finished())
+                compressed += deflater.deflate(out);
+        } finally {
+            deflater.end();
+        }
+        long nanos = System.nanoTime() - start;
+
+        double ratio = (double)compressed / length;
+        return new Choice(kind, ratio < storeRatio ? 8 : 0, kind.level, length, compressed, nanos);
+    }
+
+    void record(Choice choice, long size, long compressedSize, long nanos) {
+        Stats stat = stats.get(choice.kind);
+        synchronized (stat) {
+            stat.entries++;
+            stat.size += size;
+            stat.compressedSize += compressedSize;
+            stat.nanos += nanos;
+            if (choice.method == 0) {
+                stat.stored++;
+                // What deflating it would have cost and saved, going by how the sample did
+                if (choice.sampleSize > 0) {
+                    stat.skippedNanos += choice.sampleNanos * size / choice.sampleSize - nanos;
+                    stat.skippedBytes += size - choice.sampleCompressed * size / choice.sampleSize;
+                }
+            }
+        }
+    }
+
+    public void report(ProgressCallback monitor) {
+        for (Map.Entry<Kind, Stats> entry : stats.entrySet()) {
+            Stats stat = entry.getValue();
+            if (stat.entries == 0)
+                continue;
+            String line = String.format("  %s: %d entries, %d stored, %s -> %s, %dms compressing",
+                entry.getKey().name().toLowerCase(Locale.ENGLISH), stat.entries, stat.stored, size(stat.size), size(stat.compressedSize), stat.nanos / 1000000);
+            if (stat.stored > 0)
+                line += String.format(", storing saved ~%dms for ~%s more", Math.max(0, stat.skippedNanos / 1000000), size(Math.max(0, stat.skippedBytes)));
+            monitor.message(line);
+        }
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024 * 1024)
+            return String.format("%.1fKB", bytes / 1024.0);
+        return String.format("%.1fMB", bytes / 1024.0 / 1024.0);
+    }
+
+    static class Choice {
+        final Kind kind;
+        final int method;
+        final int level;
+        // How the test compression went, zero if there wasn't one
+        private final long sampleSize;
+        private final long sampleCompressed;
+        private final long sampleNanos;
+
+        private Choice(Kind kind, int method, int level, long sampleSize, long sampleCompressed, long sampleNanos) {
+            this.kind = kind;
+            this.method = method;
+            this.level = level;
+            this.sampleSize = sampleSize;
+            this.sampleCompressed = sampleCompressed;
+            this.sampleNanos = sampleNanos;
+        }
+    }
+
+    private static class Stats {
+        private int entries;
+        private int stored;
+        private long size;
+        private long compressedSize;
+        private long nanos;
+        // Estimated time not spent deflating stored entries, and how much bigger they are for it
+        private long skippedNanos;
+        private long skippedBytes;
+    }
+}
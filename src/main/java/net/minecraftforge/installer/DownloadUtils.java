@@ -5,8 +5,13 @@
 package net.minecraftforge.installer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
@@ -15,9 +20,17 @@ import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -38,8 +51,24 @@ public class DownloadUtils {
     public static final String MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
 
     public static boolean OFFLINE_MODE = false;
+    // Number of libraries to download at the same time, can be set using the --downloadThreads argument or the forge.installer.downloadThreads system property.
+    public static int DOWNLOAD_THREADS = Integer.getInteger("forge.installer.downloadThreads", 4);
+    // Maximum number of connections open to a single host at once, this is also the size of the JRE's keep alive cache for each host.
+    public static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("forge.installer.maxConnectionsPerHost", 4);
+    private static final Map<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
+    // Number of times we try to download a file from a single url before giving up on it. Interrupted downloads are resumed where possible.
+    private static final int MAX_ATTEMPTS = 3;
+    // Delay before the first retry, in milliseconds. Doubles every attempt, up to the max.
+    private static final long BACKOFF_BASE = 500;
+    private static final long BACKOFF_MAX = 8000;
+
+    static {
+        // The keep alive cache reads this once, so it needs to be set before the first connection is made.
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", Integer.toString(MAX_CONNECTIONS_PER_HOST));
+    }
 
-    public static boolean downloadLibrary(ProgressCallback monitor, Mirror mirror, Library library, File root, List<Artifact> grabbed, List<File> additionalLibraryDirs) {
+    public static boolean downloadLibrary(ProgressCallback monitor, List<Mirror> mirrors, Library library, File root, List<Artifact> grabbed, List<File> additionalLibraryDirs) {
         Artifact artifact = library.getName();
         File target = artifact.getLocalPath(root);
         LibraryDownload download = library.getDownloads() == null ? null :  library.getDownloads().getArtifact();
@@ -50,9 +79,18 @@ public class DownloadUtils {
 
         monitor.message(String.format("Considering library %s", artifact.getDescriptor()));
 
+        VerificationIndex index = VerificationIndex.forRoot(root);
         if (target.exists()) {
-            if (download.getSha1() != null) {
-                String sha1 = getSha1(target);
+            if (download.getSha1() != null && VerificationIndex.isWrongSize(target, download.getSize())) {
+                monitor.message("  File exists: Size invalid, deleting file:");
+                monitor.message("    Expected: " + download.getSize());
+                monitor.message("    Actual:   " + target.length());
+                if (!Materializer.delete(target)) {
+                    monitor.stage("    Failed to delete file, aborting.");
+                    return false;
+                }
+            } else if (download.getSha1() != null) {
+                String sha1 = index.getSha1(target);
                 if (download.getSha1().equals(sha1)) {
                     monitor.message("  File exists: Checksum validated.");
                     return true;
@@ -60,7 +98,7 @@ public class DownloadUtils {
                 monitor.message("  File exists: Checksum invalid, deleting file:");
                 monitor.message("    Expected: " + download.getSha1());
                 monitor.message("    Actual:   " + sha1);
-                if (!target.delete()) {
+                if (!Materializer.delete(target)) {
                     monitor.stage("    Failed to delete file, aborting.");
                     return false;
                 }
@@ -73,21 +111,21 @@ public class DownloadUtils {
         target.getParentFile().mkdirs();
 
         // Try extracting first
-        try (final InputStream input = DownloadUtils.class.getResourceAsStream("/maven/" + artifact.getPath())) {
+        try (final InputStream input = Resources.open("/maven/" + artifact.getPath())) {
             if (input != null) {
                 monitor.message("  Extracting library from /maven/" + artifact.getPath());
-                Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                String sha1 = HashFunction.SHA1.copy(input, target);
                 if (download.getSha1() != null) {
-                    String sha1 = getSha1(target);
                     if (download.getSha1().equals(sha1)) {
                         monitor.message("    Extraction completed: Checksum validated.");
+                        index.record(target, sha1);
                         grabbed.add(artifact);
                         return true;
                     }
                     monitor.message("    Extraction failed: Checksum invalid, deleting file:");
                     monitor.message("      Expected: " + download.getSha1());
                     monitor.message("      Actual:   " + sha1);
-                    if (!target.delete()) {
+                    if (!Materializer.delete(target)) {
                         monitor.stage("      Failed to delete file, aborting.");
                         return false;
                     }
@@ -103,6 +141,14 @@ public class DownloadUtils {
             return false;
         }
 
+        // Try the shared cache, this is cheaper then searching local installs as we know exactly where the file is.
+        // The cached file is hashed as it's restored, so the hash recorded here is one we've checked.
+        if (fromCache(monitor, download, target)) {
+            index.record(target, download.getSha1());
+            grabbed.add(artifact);
+            return true;
+        }
+
         // Try searching local installs if the file can be validated
         if (download.getSha1() != null) {
             String providedSha1 = download.getSha1();
@@ -110,30 +156,31 @@ public class DownloadUtils {
                 File inLibDir = new File(libDir, artifact.getPath());
                 if (inLibDir.exists()) {
                     monitor.message(String.format("  Found artifact in local folder %s", libDir.toString()));
-                    String sha1 = DownloadUtils.getSha1(inLibDir);
-                    if (providedSha1.equals(sha1)) {
-                        monitor.message("    Checksum validated");
-                    } else {
-                        // Do not fail immediately. We may have other sources
-                        monitor.message("    Invalid checksum. Not using.");
+                    if (VerificationIndex.isWrongSize(inLibDir, download.getSize())) {
+                        monitor.message("    Invalid size. Not using.");
                         continue;
                     }
-                    // Valid checksum, copy the lib
                     try {
-                        Files.copy(inLibDir.toPath(), target.toPath());
-                        monitor.message("    Successfully copied local file");
-                        grabbed.add(artifact);
-                        return true;
+                        Materializer used = Materializer.MODE.materialize(inLibDir, target, providedSha1);
+                        if (used != null) {
+                            monitor.message("    Checksum validated");
+                            monitor.message(used == Materializer.COPY ? "    Successfully copied local file" : "    Successfully linked local file (" + used.name().toLowerCase(Locale.ENGLISH) + ")");
+                            index.record(target, providedSha1);
+                            grabbed.add(artifact);
+                            return true;
+                        }
+                        // Do not fail immediately. We may have other sources
+                        monitor.message("    Invalid checksum. Not using.");
                     } catch (IOException e) {
                         // The copy may have failed when the file is in use. Don't abort, we may have other sources
                         e.printStackTrace();
                         monitor.message(String.format("    Failed to copy from local folder: %s", e.toString()));
-                        // Clean up the file that may have been created if the copy failed
-                        if (target.exists()) {
-                            if (!target.delete()) {
-                                monitor.message("    Failed to delete failed copy, aborting");
-                                return false;
-                            }
+                    }
+                    // Clean up the file that may have been created if the copy failed
+                    if (target.exists()) {
+                        if (!Materializer.delete(target)) {
+                            monitor.message("    Failed to delete failed copy, aborting");
+                            return false;
                         }
                     }
                 }
@@ -146,74 +193,309 @@ public class DownloadUtils {
             return false;
         }
 
-        if (download(monitor, mirror, download, target)) {
+        if (download(monitor, mirrors, download, target)) {
+            toCache(download, target);
+            index.record(target, download.getSha1());
             grabbed.add(artifact);
             return true;
         }
         return false;
     }
 
-    private static boolean download(ProgressCallback monitor, Mirror mirror, LibraryDownload download, File target) {
+    private static boolean fromCache(ProgressCallback monitor, Download download, File target) {
+        ArtifactCache cache = ArtifactCache.get();
+        if (cache == null || !cache.contains(download.getSha1()))
+            return false;
+
+        monitor.message("  Found artifact in cache " + cache.getRoot());
+        if (cache.materialize(download.getSha1(), target)) {
+            monitor.message("    Restored from cache");
+            return true;
+        }
+        monitor.message("    Failed to restore from cache");
+        return false;
+    }
+
+    private static void toCache(Download download, File target) {
+        ArtifactCache cache = ArtifactCache.get();
+        if (cache != null && download.getSha1() != null)
+            cache.put(download.getSha1(), target);
+    }
+
+    private static boolean download(ProgressCallback monitor, List<Mirror> mirrors, LibraryDownload download, File target) {
         String url = download.getUrl();
-        if (url.startsWith("http") && !url.startsWith(LIBRARIES_URL) && mirror != null && url.endsWith(download.getPath())) {
+        if (url.startsWith("http") && !url.startsWith(LIBRARIES_URL) && !mirrors.isEmpty() && url.endsWith(download.getPath())) {
             // TODO: Vanilla launcher is dumb so we fake classifier only deps. One day the launcher will be sane/document...
             // Anyways, the path is not the same as the real maven path. So we don't have a good way to determine the mirrored url
-            if (download(monitor, mirror, download, target, mirror.getUrl() + download.getPath())) // Use unmirrored if mirror fails.
-                return true;
+            List<Mirror> healthy = MirrorHealth.order(mirrors);
+            if (healthy.isEmpty())
+                monitor.message("  All mirrors are currently disabled");
+            for (Mirror mirror : healthy) {
+                if (download(monitor, download, target, mirror.getUrl() + download.getPath(), MirrorHealth.get(mirror)))
+                    return true;
+                if (Thread.currentThread().isInterrupted()) // Canceled, not a bad mirror
+                    return false;
+            }
         }
-        return download(monitor, mirror, download, target, url);
+        return download(monitor, download, target, url, null); // Use unmirrored if the mirrors fail.
     }
 
     public static boolean download(ProgressCallback monitor, Mirror mirror, Download download, File target) {
-        return download(monitor, mirror, download, target, download.getUrl());
+        if (fromCache(monitor, download, target))
+            return true;
+        if (!download(monitor, download, target, download.getUrl(), null))
+            return false;
+        toCache(download, target);
+        return true;
     }
 
-    private static boolean download(ProgressCallback monitor, Mirror mirror, Download download, File target, String url) {
+    private static boolean download(ProgressCallback monitor, Download download, File target, String url, MirrorHealth health) {
         monitor.message("  Downloading library from " + url);
+        File part = new File(target.getAbsolutePath() + ".part");
+        File journal = new File(target.getAbsolutePath() + ".part.properties");
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1 && !backoff(monitor, attempt))
+                return false;
+
+            if (health != null && !health.acquire()) {
+                monitor.message("    Mirror is disabled, skipping");
+                return false;
+            }
+
+            PartialDownload partial = PartialDownload.load(journal, part, url);
+            if (attempt > 1)
+                monitor.message("    Retrying, attempt " + attempt + " of " + MAX_ATTEMPTS + (partial.offset > 0 ? ", resuming from byte " + partial.offset : ""));
+
+            long start = System.nanoTime();
+            long offset = partial.offset;
+            Result result = download(monitor, download, part, journal, partial, url);
+            if (result == Result.RESUMED_BAD) {
+                // The server gave us different data then last time, or the old part file was bad. Throw it all away and start again.
+                monitor.message("    Resumed download failed checksum, retrying full download");
+                offset = 0;
+                result = download(monitor, download, part, journal, PartialDownload.load(journal, part, url), url);
+                if (result == Result.RESUMED_BAD)
+                    result = Result.BAD_CHECKSUM;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                if (health != null)
+                    health.cancel();
+                monitor.message("    Download canceled");
+                return false;
+            }
+
+            if (health != null) {
+                switch (result) {
+                    case SUCCESS:      health.success(part.length() - offset, System.nanoTime() - start); break;
+                    case BAD_CHECKSUM: health.checksumFailure(); break;
+                    default:           health.failure(); break;
+                }
+            }
+
+            if (result == Result.SUCCESS) {
+                try {
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    journal.delete();
+                    return true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    monitor.message("    Failed to move downloaded file into place: " + e.toString());
+                    return false;
+                }
+            }
+
+            if (result != Result.RETRY)
+                return false;
+        }
+        monitor.message("    Download failed after " + MAX_ATTEMPTS + " attempts");
+        return false;
+    }
+
+    /*
+     * Waits before the next attempt, doubling the wait each time.
+     * The random jitter keeps parallel downloads that failed at the same time from all hitting the server again at the same time.
+     */
+    private static boolean backoff(ProgressCallback monitor, int attempt) {
+        long delay = Math.min(BACKOFF_BASE << (attempt - 2), BACKOFF_MAX);
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1) + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
         try {
-            URLConnection connection = getConnection(url);
-            if (connection != null) {
-                Files.copy(connection.getInputStream(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Let the installer notice it's been canceled
+            monitor.message("    Download canceled");
+            return false;
+        }
+    }
 
-                if (download.getSha1() != null) {
-                    String sha1 = getSha1(target);
-                    if (download.getSha1().equals(sha1)) {
-                        monitor.message("    Download completed: Checksum validated.");
-                        return true;
-                    }
-                    monitor.message("    Download failed: Checksum invalid, deleting file:");
-                    monitor.message("      Expected: " + download.getSha1());
-                    monitor.message("      Actual:   " + sha1);
-                    if (!target.delete()) {
-                        monitor.stage("      Failed to delete file, aborting.");
-                        return false;
+    private static Result download(ProgressCallback monitor, Download download, File part, File journal, PartialDownload partial, String url) {
+        Map<String, String> headers = new HashMap<>();
+        if (partial.offset > 0) {
+            headers.put("Range", "bytes=" + partial.offset + "-");
+            // If the file has changed on the server since we started, this makes it send us the whole new file instead of the rest of the old one.
+            if (partial.validator != null)
+                headers.put("If-Range", partial.validator);
+        }
+
+        try (Connection connection = getConnection(url, headers)) {
+            if (connection == null)
+                return OFFLINE_MODE || Thread.currentThread().isInterrupted() ? Result.FAILED : Result.RETRY;
+
+            int code = connection.getResponseCode();
+            if (code == 416 && partial.offset > 0) { // Range Not Satisfiable, our partial file doesn't match what the server has anymore
+                monitor.message("    Server rejected resume request, downloading full file");
+                journal.delete();
+                part.delete();
+                return Result.RETRY;
+            }
+            if (code >= 400) {
+                monitor.message("    Download failed: Server returned " + code);
+                return code >= 500 ? Result.RETRY : Result.FAILED;
+            }
+
+            boolean resumed = partial.offset > 0 && code == HttpURLConnection.HTTP_PARTIAL;
+            if (partial.offset > 0 && !resumed) {
+                monitor.message("    Server does not support resuming, downloading full file");
+                partial.offset = 0;
+            }
+
+            partial.validator = connection.getValidator();
+            partial.save(journal);
+
+            MessageDigest digest = HashFunction.SHA1.get();
+            byte[] buf = new byte[8192];
+            if (resumed) {
+                try (InputStream input = new FileInputStream(part)) {
+                    long remaining = partial.offset;
+                    int count;
+                    while (remaining > 0 && (count = input.read(buf, 0, (int)Math.min(buf.length, remaining))) != -1) {
+                        digest.update(buf, 0, count);
+                        remaining -= count;
                     }
                 }
+            }
+
+            try (InputStream input = connection.getInputStream();
+                 OutputStream output = new FileOutputStream(part, resumed)) {
+                int count;
+                while ((count = input.read(buf)) != -1) {
+                    digest.update(buf, 0, count);
+                    output.write(buf, 0, count);
+                }
+            } catch (IOException e) {
+                // Remember how far we got, so the next attempt can pick up from there
+                partial.offset = part.length();
+                partial.save(journal);
+                monitor.message("    Download interrupted after " + partial.offset + " bytes: " + e.toString());
+                return Result.RETRY;
+            }
+
+            String sha1 = HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16));
+            if (download.getSha1() == null) {
                 monitor.message("    Download completed: No checksum, Assuming valid.");
+                return Result.SUCCESS;
+            }
+            if (download.getSha1().equals(sha1)) {
+                monitor.message("    Download completed: Checksum validated.");
+                return Result.SUCCESS;
+            }
+
+            monitor.message("    Download failed: Checksum invalid, deleting file:");
+            monitor.message("      Expected: " + download.getSha1());
+            monitor.message("      Actual:   " + sha1);
+            journal.delete();
+            if (!part.delete()) {
+                monitor.stage("      Failed to delete file, aborting.");
+                return Result.FAILED;
             }
+            return resumed ? Result.RESUMED_BAD : Result.BAD_CHECKSUM;
         } catch (IOException e) {
             e.printStackTrace();
+            return Result.RETRY;
+        }
+    }
+
+    private enum Result { SUCCESS, FAILED, RETRY, BAD_CHECKSUM, RESUMED_BAD }
+
+    /*
+     * Journal for a partially downloaded file. Stored next to the .part file so that retries, and later runs of the installer,
+     * can ask the server for just the bytes we are missing.
+     */
+    private static class PartialDownload {
+        private final String url;
+        private long offset = 0;
+        private String validator;
+
+        private PartialDownload(String url) {
+            this.url = url;
+        }
+
+        private static PartialDownload load(File journal, File part, String url) {
+            PartialDownload ret = new PartialDownload(url);
+            if (!journal.exists() || !part.exists())
+                return ret;
+
+            Properties props = new Properties();
+            try (InputStream input = new FileInputStream(journal)) {
+                props.load(input);
+            } catch (IOException e) {
+                return ret;
+            }
+
+            // Only resume if it was the same file we were downloading, mirrors are not guaranteed to be byte identical until we check the hash.
+            if (!url.equals(props.getProperty("url")))
+                return ret;
+
+            try {
+                // Trust what is actually on disk if we died before the journal was updated.
+                ret.offset = Math.min(Long.parseLong(props.getProperty("offset", "0")), part.length());
+            } catch (NumberFormatException e) {
+                return ret;
+            }
+            ret.validator = props.getProperty("validator");
+
+            // Anything past the recorded offset was written after the last time we checked in, so don't trust it.
+            if (ret.offset < part.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+                    raf.setLength(ret.offset);
+                } catch (IOException e) {
+                    ret.offset = 0;
+                }
+            }
+            return ret;
+        }
+
+        private void save(File journal) {
+            Properties props = new Properties();
+            props.setProperty("url", url);
+            props.setProperty("offset", Long.toString(offset));
+            if (validator != null)
+                props.setProperty("validator", validator);
+            try (OutputStream output = new FileOutputStream(journal)) {
+                props.store(output, "Forge Installer partial download");
+            } catch (IOException e) {
+                // Not fatal, we just won't be able to resume this one
+                e.printStackTrace();
+            }
         }
-        return false;
     }
 
     public static String getSha1(File target) {
         try {
-            return HashFunction.SHA1.hash(Files.readAllBytes(target.toPath())).toString();
+            return HashFunction.SHA1.hash(target);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    private static boolean checksumValid(File target, String checksum) {
-        if (checksum == null || checksum.isEmpty())
-            return true;
-        String sha1 = getSha1(target);
-        return sha1 != null && sha1.equals(checksum);
+    private static Connection getConnection(String address) {
+        return getConnection(address, Collections.emptyMap());
     }
 
-    private static URLConnection getConnection(String address) {
+    private static Connection getConnection(String address, Map<String, String> headers) {
         if (OFFLINE_MODE) {
             System.out.println("Offline Mode: Not downloading: " + address);
             return null;
@@ -227,20 +509,25 @@ public class DownloadUtils {
             return null;
         }
 
+        Semaphore permit = null;
         try {
             int MAX = 3;
             URLConnection connection = null;
             for (int x = 0; x < MAX; x++) { //Maximum of 3 redirects.
+                permit = getHostPermit(url);
                 connection = url.openConnection();
                 connection.setConnectTimeout(5000);
                 connection.setReadTimeout(5000);
+                for (Map.Entry<String, String> header : headers.entrySet())
+                    connection.setRequestProperty(header.getKey(), header.getValue());
                 if (connection instanceof HttpURLConnection) {
                     HttpURLConnection hcon = (HttpURLConnection)connection;
                     hcon.setInstanceFollowRedirects(false);
                     int res = hcon.getResponseCode();
                     if (res == HttpURLConnection.HTTP_MOVED_PERM || res == HttpURLConnection.HTTP_MOVED_TEMP) {
                         String location = hcon.getHeaderField("Location");
-                        hcon.disconnect(); //Kill old connection.
+                        release(hcon, permit); // Give the socket back to the keep alive cache instead of killing it
+                        permit = null;
                         if (x == MAX-1) {
                             System.out.println("Invalid number of redirects: " + location);
                             return null;
@@ -255,13 +542,22 @@ public class DownloadUtils {
                     break;
                 }
             }
-            return connection;
+            return new Connection(connection, permit);
         } catch (SSLHandshakeException e) {
+            if (permit != null)
+                permit.release();
             System.out.println("Failed to establish connection to " + address);
             System.out.println(" Host: " + url.getHost() + " [" + getIpString(url.getHost()) + "]");
             e.printStackTrace();
             return null;
+        } catch (InterruptedException e) {
+            if (permit != null)
+                permit.release();
+            Thread.currentThread().interrupt(); // Canceled while waiting for a connection to the host, let the caller see it
+            return null;
         } catch (IOException e) {
+            if (permit != null)
+                permit.release();
             System.out.println("Failed to establish connection to " + address);
             System.out.println(" Host: " + url.getHost() + " [" + getIpString(url.getHost()) + "]");
             e.printStackTrace();
@@ -269,6 +565,102 @@ public class DownloadUtils {
         }
     }
 
+    private static Semaphore getHostPermit(URL url) throws InterruptedException {
+        Semaphore permit = HOST_PERMITS.computeIfAbsent(url.getHost(), k -> new Semaphore(MAX_CONNECTIONS_PER_HOST));
+        permit.acquire();
+        return permit;
+    }
+
+    /*
+     * The JRE will only put a connection back into its keep alive cache once the response body has been read to the end and closed.
+     * Calling disconnect() closes the socket, which means we pay for a new TCP and TLS handshake on the next request to that host.
+     */
+    private static void release(HttpURLConnection connection, Semaphore permit) {
+        try {
+            InputStream body;
+            try {
+                body = connection.getInputStream();
+            } catch (IOException e) {
+                body = connection.getErrorStream();
+            }
+            drain(body);
+        } finally {
+            if (permit != null)
+                permit.release();
+        }
+    }
+
+    private static void drain(InputStream stream) {
+        if (stream == null)
+            return;
+        try {
+            byte[] buf = new byte[1024];
+            while (stream.read(buf) != -1);
+        } catch (IOException e) {
+            // Already closed, or the connection broke. Either way the JRE won't reuse it, and there is nothing more for us to do.
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Same as above
+        }
+    }
+
+    /*
+     * A open connection to a server, holding one of the per host connection slots until it is closed.
+     * Closing this reads the remaining response, so that the underlying socket can be reused by the next request to the same host.
+     */
+    private static class Connection implements AutoCloseable {
+        private final URLConnection connection;
+        private Semaphore permit;
+        private InputStream stream;
+
+        private Connection(URLConnection connection, Semaphore permit) {
+            this.connection = connection;
+            this.permit = permit;
+        }
+
+        public int getResponseCode() throws IOException {
+            return connection instanceof HttpURLConnection ? ((HttpURLConnection)connection).getResponseCode() : HttpURLConnection.HTTP_OK;
+        }
+
+        // Something that identifies the version of the file on the server, used to make sure we resume the same file we started.
+        public String getValidator() {
+            String etag = connection.getHeaderField("ETag");
+            // Weak ETags aren't allowed in If-Range
+            if (etag != null && !etag.startsWith("W/"))
+                return etag;
+            return connection.getHeaderField("Last-Modified");
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (stream == null)
+                stream = connection.getInputStream();
+            return stream;
+        }
+
+        @Override
+        public void close() {
+            Semaphore permit = this.permit;
+            this.permit = null;
+            if (stream != null) {
+                drain(stream);
+                if (permit != null)
+                    permit.release();
+            } else if (connection instanceof HttpURLConnection) {
+                release((HttpURLConnection)connection, permit);
+            } else {
+                try {
+                    drain(connection.getInputStream());
+                } catch (IOException e) {
+                    // Never opened, nothing to clean up
+                }
+                if (permit != null)
+                    permit.release();
+            }
+        }
+    }
+
     public static List<String> getIps(String host) {
         try {
             InetAddress[] addresses = InetAddress.getAllByName(host);
@@ -305,8 +697,7 @@ public class DownloadUtils {
     }
 
     public static <R> R downloadString(String url, Function<InputStream, R> reader) {
-        try {
-            URLConnection connection = getConnection(url);
+        try (Connection connection = getConnection(url)) {
             if (connection != null) {
                 try (InputStream stream = connection.getInputStream()) {
                     return reader.apply(stream);
@@ -319,8 +710,7 @@ public class DownloadUtils {
     }
 
     public static boolean downloadFile(File target, String url) {
-        try {
-            URLConnection connection = getConnection(url);
+        try (Connection connection = getConnection(url)) {
             if (connection != null) {
                 Files.copy(connection.getInputStream(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
                 return true;
@@ -332,7 +722,7 @@ public class DownloadUtils {
     }
 
     public static boolean extractFile(Artifact art, File target, String checksum) {
-        final InputStream input = DownloadUtils.class.getResourceAsStream("/maven/" + art.getPath());
+        final InputStream input = Resources.open("/maven/" + art.getPath());
         if (input == null) {
             System.out.println("File not found in installer archive: /maven/" + art.getPath());
             return false;
@@ -341,9 +731,9 @@ public class DownloadUtils {
         if (!target.getParentFile().exists())
             target.getParentFile().mkdirs();
 
-        try {
-            Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            return checksumValid(target, checksum);
+        try (InputStream stream = input) {
+            String sha1 = HashFunction.SHA1.copy(stream, target);
+            return checksum == null || checksum.isEmpty() || checksum.equals(sha1);
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -352,7 +742,7 @@ public class DownloadUtils {
 
     public static boolean extractFile(String name, File target) {
         final String path = name.charAt(0) == '/' ? name : '/' + name;
-        final InputStream input = DownloadUtils.class.getResourceAsStream(path);
+        final InputStream input = Resources.open(path);
         if (input == null) {
             System.out.println("File not found in installer archive: " + path);
             return false;
@@ -361,8 +751,8 @@ public class DownloadUtils {
         if (!target.getParentFile().exists())
             target.getParentFile().mkdirs();
 
-        try {
-            Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (InputStream stream = input) {
+            Files.copy(stream, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
             return true; //checksumValid(target, checksum); //TODO: zip checksums?
         } catch (Exception e) {
             e.printStackTrace();
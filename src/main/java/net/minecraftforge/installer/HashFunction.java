@@ -6,8 +6,10 @@ package net.minecraftforge.installer;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -49,7 +51,7 @@ public enum HashFunction {
 
     public String hash(Iterable<File> files) throws IOException {
         MessageDigest hash = get();
-        byte[] buf = new byte[1024];
+        byte[] buf = new byte[8192];
 
         for (File file : files) {
             if (!file.exists())
@@ -70,13 +72,30 @@ public enum HashFunction {
 
     public String hash(InputStream stream) throws IOException {
         MessageDigest hash = get();
-        byte[] buf = new byte[1024];
+        byte[] buf = new byte[8192];
         int count = -1;
         while ((count = stream.read(buf)) != -1)
             hash.update(buf, 0, count);
         return pad(new BigInteger(1, hash.digest()).toString(16));
     }
 
+    /*
+     * Copies the stream to the target file, hashing the data as it is written.
+     * This means we don't have to read the file back from disk, or hold it all in memory, to verify it.
+     */
+    public String copy(InputStream stream, File target) throws IOException {
+        MessageDigest hash = get();
+        byte[] buf = new byte[8192];
+        int count = -1;
+        try (OutputStream out = new FileOutputStream(target)) {
+            while ((count = stream.read(buf)) != -1) {
+                hash.update(buf, 0, count);
+                out.write(buf, 0, count);
+            }
+        }
+        return pad(new BigInteger(1, hash.digest()).toString(16));
+    }
+
     public String hash(byte[] data) {
         return pad(new BigInteger(1, get().digest(data)).toString(16));
     }
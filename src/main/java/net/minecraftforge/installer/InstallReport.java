@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.minecraftforge.installer.actions.ProgressCallback;
+import net.minecraftforge.installer.json.Util;
+
+/*
+ * Timings for each phase of an install and each processor, so we can tell what is slow.
+ * A summary is always logged at the end of the install, and the full report is written as json if --report or forge.installer.report is set.
+ *
+ * Phases run one after the other, starting a new phase ends the previous one.
+ * CPU time and allocated bytes are only what the processor's own thread used, taken from the JVM when it supports it, otherwise -1.
+ */
+public class InstallReport {
+    public static File OUTPUT = System.getProperty("forge.installer.report") == null ? null : new File(System.getProperty("forge.installer.report"));
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static InstallReport current = null;
+
+    private final String action;
+    private final long started = System.currentTimeMillis();
+    private transient final long startNanos = System.nanoTime();
+    private Boolean success = null;
+    private long wallMs = -1;
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Processor> processors = new ArrayList<>();
+    private transient Phase phase = null;
+
+    private InstallReport(String action) {
+        this.action = action;
+    }
+
+    public static synchronized void start(String action) {
+        current = new InstallReport(action);
+    }
+
+    public static synchronized void phase(String name) {
+        if (current == null)
+            return;
+        if (current.phase != null)
+            current.phase.end();
+        current.phase = new Phase(name);
+        current.phases.add(current.phase);
+    }
+
+    /*
+     * Adds a record for a processor, the caller fills it in as it runs.
+     * If no install is being tracked the record is just thrown away.
+     */
+    public static synchronized Processor processor(int index, String jar) {
+        Processor ret = new Processor(index, jar);
+        if (current != null)
+            current.processors.add(ret);
+        return ret;
+    }
+
+    public static synchronized void finish(ProgressCallback monitor, boolean success) {
+        InstallReport report = current;
+        current = null;
+        if (report == null)
+            return;
+
+        if (report.phase != null)
+            report.phase.end();
+        report.success = success;
+        report.wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - report.startNanos);
+        report.processors.sort(Comparator.comparingInt(p -> p.index));
+
+        monitor.message("Install report: " + report.wallMs + "ms");
+        for (Phase phase : report.phases)
+            monitor.message("  " + phase.name + ": " + phase.wallMs + "ms");
+        for (Processor proc : report.processors)
+            monitor.message("  " + proc);
+
+        if (OUTPUT != null) {
+            try (OutputStream stream = Files.newOutputStream(OUTPUT.toPath());
+                 Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+                Util.GSON.toJson(report, writer);
+                monitor.message("Install report written to " + OUTPUT.getAbsolutePath());
+            } catch (IOException e) {
+                monitor.message("Failed to write install report " + OUTPUT + ": " + e.toString());
+            }
+        }
+    }
+
+    // CPU time used by the current thread so far in nanoseconds, or -1 if the JVM can't tell us.
+    public static long getThreadCpuTime() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    // Bytes allocated by the current thread so far, or -1 if the JVM can't tell us. Only HotSpot based JVMs expose this.
+    public static long getThreadAllocatedBytes() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)THREADS;
+                if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch (UnsupportedOperationException | LinkageError e) {
+            // Not a HotSpot JVM
+        }
+        return -1;
+    }
+
+    private static class Phase {
+        private final String name;
+        private transient final long start = System.nanoTime();
+        private long wallMs = -1;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        private void end() {
+            if (wallMs == -1)
+                wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    public static class Processor {
+        private final int index;
+        private final String jar;
+        private String mainClass;
+        // hit: outputs were already valid, restored: outputs came from the processor cache, ran: the processor was run, failed: it, or checking its outputs, failed
+        private String status = "failed";
+        private long wallMs = -1;
+        private long cpuMs = -1;
+        private long allocatedBytes = -1;
+        // Size of every file the processor reads, including its jar and classpath
+        private long inputBytes = 0;
+        private long outputBytes = 0;
+
+        private Processor(int index, String jar) {
+            this.index = index;
+            this.jar = jar;
+        }
+
+        public void setMainClass(String value) { this.mainClass = value; }
+        public void setStatus(String value)    { this.status = value; }
+        public void setWallNanos(long value)   { this.wallMs = TimeUnit.NANOSECONDS.toMillis(value); }
+        public void setCpuNanos(long value)    { this.cpuMs = value < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(value); }
+        public void setAllocatedBytes(long value) { this.allocatedBytes = value; }
+        public void addInputBytes(long value)  { this.inputBytes += value; }
+        public void addOutputBytes(long value) { this.outputBytes += value; }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            buf.append("Processor ").append(index + 1).append(" (").append(mainClass == null ? jar : mainClass).append("): ")
+               .append(status).append(" in ").append(wallMs).append("ms");
+            if (cpuMs != -1)
+                buf.append(", cpu ").append(cpuMs).append("ms");
+            if (allocatedBytes != -1)
+                buf.append(", ").append(allocatedBytes / 1024 / 1024).append("MB allocated");
+            buf.append(", ").append(inputBytes / 1024).append("KB in, ").append(outputBytes / 1024).append("KB out");
+            return buf.toString();
+        }
+    }
+}
@@ -88,7 +88,7 @@ public class InstallerPanel extends JPanel {
 
     private BufferedImage getImage(String path) {
         try {
-            InputStream in = SimpleInstaller.class.getResourceAsStream(path);
+            InputStream in = Resources.open(path);
             return in == null ? null : ImageIO.read(in);
         } catch (IOException e) {
             return sneak(e);
@@ -264,11 +264,15 @@ public class InstallerPanel extends JPanel {
             ProgressFrame prog = new ProgressFrame(monitor, "Installing " + profile.getVersion(), Thread.currentThread()::interrupt);
             SimpleInstaller.hookStdOut(prog);
             Action action = actions.get(choiceButtonGroup.getSelection().getActionCommand()).apply(prog);
+            InstallReport.start(Actions.valueOf(choiceButtonGroup.getSelection().getActionCommand()).getButtonLabel());
+            boolean success = false;
             try {
                 prog.setVisible(true);
                 prog.toFront();
 
-                if (action.run(targetDir, installer)) {
+                success = action.run(targetDir, installer);
+                InstallReport.finish(prog, success); // Before any dialogs, so the time waiting on the user isn't counted
+                if (success) {
                     prog.start("Finished!");
                     prog.progress(1);
                     JOptionPane.showMessageDialog(null, action.getSuccessMessage(), "Complete", JOptionPane.INFORMATION_MESSAGE);
@@ -287,6 +291,7 @@ public class InstallerPanel extends JPanel {
                 JOptionPane.showOptionDialog(null, message, "Error", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE, null, new Object[]{"Ok", SwingUtil.createLogButton()}, "");
                 e.printStackTrace();
             } finally {
+                InstallReport.finish(prog, success);
                 prog.dispose();
                 SimpleInstaller.hookStdOut(monitor);
             }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * How to place a file we already have on disk, from another library folder or the shared cache, into the install.
+ * Anything other then COPY falls back to a copy if the file system doesn't support it.
+ *
+ * Can be set using the --materialize argument or the forge.installer.materialize system property, the default is COPY.
+ * Links share their data with the source, so writing to one in place changes the other, only use them if nothing does that.
+ */
+public enum Materializer {
+    // Hard link if the source is on the same file system, otherwise copy.
+    AUTO,
+    // Always make a full copy, this is the only mode that doesn't share anything with the source.
+    COPY,
+    HARDLINK,
+    // Symbolic links break if the source is removed, so only use this if the source folder is never cleaned.
+    SYMLINK,
+    // Copy on write clone, currently only attempted where 'cp --reflink' or 'cp -c' is available.
+    REFLINK;
+
+    public static Materializer MODE = fromProperty();
+
+    private static Materializer fromProperty() {
+        try {
+            return parse(System.getProperty("forge.installer.materialize", "copy"));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + ", using copy");
+            return COPY;
+        }
+    }
+
+    public static Materializer parse(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown materialize mode: " + value + " Expected one of auto, copy, hardlink, symlink, reflink");
+        }
+    }
+
+    /*
+     * Places the source file at the target, making sure the result matches the expected hash.
+     * Links are the same data as the source, so the source is hashed before linking. Nothing is trusted without being hashed,
+     * even files from our own cache, as a linked file can be written to in place by anything in the install.
+     *
+     * Returns the mode that was actually used, or null if the source didn't match the hash, in which case the target doesn't exist.
+     */
+    public Materializer materialize(File source, File target, String sha1) throws IOException {
+        Materializer mode = this == AUTO ? (sameFileStore(source, target) ? HARDLINK : COPY) : this;
+
+        if (mode != COPY) {
+            if (sha1 != null && !sha1.equalsIgnoreCase(HashFunction.SHA1.hash(source)))
+                return null;
+
+            target.setWritable(true); // May be a read only link from the cache, see ArtifactCache.materialize
+            Files.deleteIfExists(target.toPath());
+            if (mode.link(source, target))
+                return mode;
+            System.out.println("Could not " + mode.name().toLowerCase(Locale.ENGLISH) + " " + source + ", copying instead");
+        }
+
+        // Copying lets us check the hash of what we actually wrote, so no need to hash the source first.
+        String actual;
+        try (InputStream input = new FileInputStream(source)) {
+            actual = HashFunction.SHA1.copy(input, target);
+        }
+        if (sha1 != null && !sha1.equalsIgnoreCase(actual)) {
+            delete(target);
+            return null;
+        }
+        return COPY;
+    }
+
+    // Deletes a file that may be a read only link from the cache, Windows won't delete read only files
+    static boolean delete(File target) {
+        target.setWritable(true);
+        return target.delete();
+    }
+
+    private boolean link(File source, File target) {
+        try {
+            switch (this) {
+                case HARDLINK:
+                    Files.createLink(target.toPath(), source.toPath());
+                    return true;
+                case SYMLINK:
+                    Files.createSymbolicLink(target.toPath(), source.getAbsoluteFile().toPath());
+                    return true;
+                case REFLINK:
+                    return reflink(source, target);
+                default:
+                    return false;
+            }
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static boolean reflink(File source, File target) throws IOException {
+        String os = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+        if (os.contains("win"))
+            return false;
+
+        String flag = os.contains("mac") ? "-c" : "--reflink=always";
+        Process process = new ProcessBuilder("cp", flag, source.getAbsolutePath(), target.getAbsolutePath())
+            .redirectErrorStream(true)
+            .start();
+        try {
+            process.getOutputStream().close();
+            drain(process.getInputStream());
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (process.exitValue() != 0) {
+            target.delete(); // cp may leave an empty file behind
+            return false;
+        }
+        return true;
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buf = new byte[1024];
+        while (stream.read(buf) != -1);
+    }
+
+    private static boolean sameFileStore(File source, File target) {
+        try {
+            File parent = target.getAbsoluteFile().getParentFile();
+            return Files.getFileStore(source.toPath()).equals(Files.getFileStore(parent.toPath()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
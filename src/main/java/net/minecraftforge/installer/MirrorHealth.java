@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.minecraftforge.installer.json.Mirror;
+
+/*
+ * Tracks how well each mirror has been behaving during this install, so that one broken mirror doesn't cost us a timeout for every artifact.
+ *
+ * Each mirror has a simple circuit breaker:
+ *   Closed    - Requests are allowed, this is the normal state.
+ *   Open      - The mirror failed too many times in a row, or served us bad data. Requests are skipped until the cooldown runs out.
+ *   Half Open - The cooldown ran out, a single request is allowed through to see if the mirror has recovered.
+ */
+public class MirrorHealth {
+    // Number of failures in a row before we stop using a mirror.
+    private static final int FAILURE_THRESHOLD = 3;
+    // Checksum mismatches are worse then timeouts, it means the mirror is serving bad data, so trip sooner.
+    private static final int CHECKSUM_THRESHOLD = 2;
+    private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(30);
+    private static final Map<String, MirrorHealth> HEALTH = new ConcurrentHashMap<>();
+
+    private final Mirror mirror;
+    private int consecutiveFailures = 0;
+    private int failures = 0;
+    private int checksumFailures = 0;
+    private long bytes = 0;
+    private long nanos = 0;
+    private int inFlight = 0;
+    private long openedAt = -1;
+    private boolean trial = false;
+
+    private MirrorHealth(Mirror mirror) {
+        this.mirror = mirror;
+    }
+
+    public static MirrorHealth get(Mirror mirror) {
+        return HEALTH.computeIfAbsent(mirror.getUrl(), k -> new MirrorHealth(mirror));
+    }
+
+    /*
+     * Returns the mirrors that are currently allowed to take requests, in the order they should be tried.
+     * Mirrors with better measured throughput go first, discounted by how many downloads they are already serving, so that
+     * parallel downloads get spread across all healthy mirrors instead of piling onto one.
+     * Ties keep the order they were given in, which is the latency ranking from MirrorSelector.
+     */
+    public static List<Mirror> order(List<Mirror> mirrors) {
+        List<MirrorHealth> healthy = new ArrayList<>();
+        double best = 0;
+        for (Mirror mirror : mirrors) {
+            MirrorHealth health = get(mirror);
+            if (health.isAvailable()) {
+                healthy.add(health);
+                best = Math.max(best, health.throughput());
+            }
+        }
+
+        // Be optimistic about mirrors we haven't used yet, so that they get a chance to take some of the load.
+        Map<MirrorHealth, Double> scores = new HashMap<>();
+        for (MirrorHealth health : healthy)
+            scores.put(health, health.score(best));
+
+        List<MirrorHealth> sorted = new ArrayList<>(healthy);
+        sorted.sort(Comparator.comparingDouble((MirrorHealth h) -> -scores.get(h)).thenComparingInt(healthy::indexOf));
+
+        List<Mirror> ret = new ArrayList<>();
+        for (MirrorHealth health : sorted)
+            ret.add(health.mirror);
+        return ret;
+    }
+
+    private synchronized boolean isAvailable() {
+        if (openedAt == -1)
+            return true;
+        return !trial && System.nanoTime() - openedAt >= COOLDOWN;
+    }
+
+    // Bytes per second this mirror has managed so far, or 0 if we haven't downloaded anything from it yet.
+    private synchronized double throughput() {
+        return nanos == 0 ? 0 : bytes / (nanos / 1_000_000_000.0);
+    }
+
+    private synchronized double score(double unknown) {
+        return (nanos == 0 ? unknown : throughput()) / (1 + inFlight);
+    }
+
+    /*
+     * Asks permission to send a request to this mirror. Every successful call must be paired with one of the report methods.
+     */
+    public synchronized boolean acquire() {
+        if (openedAt != -1) {
+            if (trial || System.nanoTime() - openedAt < COOLDOWN)
+                return false;
+            trial = true; // Half open, let this one through
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void success(long bytes, long nanos) {
+        inFlight--;
+        this.bytes += bytes;
+        this.nanos += nanos;
+        consecutiveFailures = 0;
+        if (openedAt != -1)
+            System.out.println("Mirror " + mirror.getName() + " has recovered");
+        openedAt = -1;
+        trial = false;
+    }
+
+    public synchronized void failure() {
+        inFlight--;
+        failures++;
+        consecutiveFailures++;
+        if (trial || consecutiveFailures >= FAILURE_THRESHOLD)
+            open("failed " + consecutiveFailures + " times in a row");
+    }
+
+    public synchronized void checksumFailure() {
+        inFlight--;
+        checksumFailures++;
+        consecutiveFailures++;
+        if (trial || checksumFailures >= CHECKSUM_THRESHOLD)
+            open("served " + checksumFailures + " files with invalid checksums");
+    }
+
+    // The request was given up on without an answer, like when the install is canceled, so it says nothing about the mirror
+    public synchronized void cancel() {
+        inFlight--;
+        trial = false; // Still open, the next request after the cooldown can try again
+    }
+
+    private void open(String reason) {
+        if (openedAt == -1 || trial)
+            System.out.println("Mirror " + mirror.getName() + " " + reason + ", not using it for " + TimeUnit.NANOSECONDS.toSeconds(COOLDOWN) + " seconds");
+        openedAt = System.nanoTime();
+        trial = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d bytes in %dms, %d failures, %d bad checksums%s", mirror.getName(), bytes,
+            TimeUnit.NANOSECONDS.toMillis(nanos), failures, checksumFailures, openedAt == -1 ? "" : " (disabled)");
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import net.minecraftforge.installer.json.Mirror;
+import net.minecraftforge.installer.json.Util;
+
+/*
+ * Picks the order we should use mirrors in, by timing a HEAD request against each of them.
+ * The result is cached on disk for a while, so that running several installers in a row doesn't probe the mirrors every time.
+ */
+public class MirrorSelector {
+    private static final File CACHE = new File(System.getProperty("java.io.tmpdir"), "forge_installer_mirrors.json");
+    // How long a ranking is trusted for, in minutes.
+    private static final long TTL = TimeUnit.MINUTES.toMillis(Long.getLong("forge.installer.mirrorCacheTtl", 60));
+    private static final int TIMEOUT = 3000;
+
+    public static List<Mirror> rank(String listUrl, Mirror[] mirrors) {
+        List<Mirror> ret = new ArrayList<>(Arrays.asList(mirrors));
+        if (ret.size() <= 1)
+            return ret;
+
+        Map<String, Cached> cache = loadCache();
+        Cached cached = cache.get(listUrl);
+        if (cached != null && System.currentTimeMillis() - cached.time < TTL && cached.covers(ret)) {
+            System.out.println("Using cached mirror ranking from " + CACHE);
+            ret.sort(Comparator.comparingInt(m -> cached.order.indexOf(m.getUrl())));
+            return ret;
+        }
+
+        System.out.println("Ranking " + ret.size() + " mirrors by latency");
+        Map<Mirror, Long> latency = probe(ret);
+        ret.sort(Comparator.comparingLong(latency::get));
+        for (Mirror mirror : ret) {
+            long time = latency.get(mirror);
+            System.out.println("  " + mirror.getName() + " " + mirror.getUrl() + ": " + (time == Long.MAX_VALUE ? "unreachable" : time + "ms"));
+        }
+
+        Cached update = new Cached();
+        update.time = System.currentTimeMillis();
+        update.order = new ArrayList<>();
+        for (Mirror mirror : ret)
+            update.order.add(mirror.getUrl());
+        cache.put(listUrl, update);
+        saveCache(cache);
+
+        return ret;
+    }
+
+    private static Map<Mirror, Long> probe(List<Mirror> mirrors) {
+        Map<Mirror, Long> ret = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mirrors.size(), 8), r -> {
+            Thread thread = new Thread(r, "Mirror Probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Map<Mirror, Future<Long>> futures = new HashMap<>();
+            for (Mirror mirror : mirrors)
+                futures.put(mirror, executor.submit(() -> probe(mirror)));
+
+            for (Mirror mirror : mirrors) {
+                long time;
+                try {
+                    time = futures.get(mirror).get();
+                } catch (Exception e) {
+                    time = Long.MAX_VALUE;
+                }
+                ret.put(mirror, time);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return ret;
+    }
+
+    private static long probe(Mirror mirror) {
+        try {
+            long start = System.nanoTime();
+            HttpURLConnection con = (HttpURLConnection)new URL(mirror.getUrl()).openConnection();
+            con.setRequestMethod("HEAD");
+            con.setConnectTimeout(TIMEOUT);
+            con.setReadTimeout(TIMEOUT);
+            con.setInstanceFollowRedirects(false);
+            // Any response at all means the server is alive, most mirror roots don't have anything to serve.
+            con.getResponseCode();
+            long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            con.disconnect(); // HEAD has no body, and we're unlikely to reuse this exact connection
+            return time;
+        } catch (IOException | ClassCastException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static Map<String, Cached> loadCache() {
+        if (CACHE.exists()) {
+            try (InputStream stream = new FileInputStream(CACHE)) {
+                Map<String, Cached> ret = Util.GSON.fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), new TypeToken<Map<String, Cached>>(){}.getType());
+                if (ret != null)
+                    return ret;
+            } catch (IOException | JsonParseException e) {
+                System.out.println("Failed to read mirror cache " + CACHE + ": " + e.toString());
+            }
+        }
+        return new HashMap<>();
+    }
+
+    private static void saveCache(Map<String, Cached> cache) {
+        try (OutputStream stream = new FileOutputStream(CACHE);
+             Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+            Util.GSON.toJson(cache, writer);
+        } catch (IOException e) {
+            System.out.println("Failed to write mirror cache " + CACHE + ": " + e.toString());
+        }
+    }
+
+    private static class Cached {
+        private long time;
+        private List<String> order;
+
+        private boolean covers(List<Mirror> mirrors) {
+            return order != null && order.size() == mirrors.size() && mirrors.stream().allMatch(m -> order.contains(m.getUrl()));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import net.minecraftforge.installer.json.Bundle;
+import net.minecraftforge.installer.json.Util;
+
+/*
+ * Finds the files packed into the installer, install_profile.json, the version json, /maven/, /cache/ and /data/.
+ * A normal installer has them in the root of the jar. A bundle has several profiles, and bundle.json says where each
+ * profile's files are, anything it doesn't list comes from the root, so the installer itself and its images are shared.
+ *
+ * The profile is picked with --profile or forge.installer.profile, or from a list in the GUI. If nothing picks one by the
+ * time a file is needed, the bundle's default is used.
+ */
+public class Resources {
+    public static final String BUNDLE = "/bundle.json";
+    public static String PROFILE = System.getProperty("forge.installer.profile");
+
+    private static boolean loaded = false;
+    private static Bundle bundle = null;
+    private static String selected = null;
+    private static Map<String, String> files = Collections.emptyMap();
+
+    // The bundle this installer holds, or null if it's a normal installer
+    public static synchronized Bundle getBundle() {
+        if (!loaded) {
+            loaded = true;
+            try (InputStream stream = Resources.class.getResourceAsStream(BUNDLE)) {
+                if (stream != null)
+                    bundle = Util.GSON.fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), Bundle.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bundle;
+    }
+
+    public static synchronized void select(String profile) {
+        Bundle bundle = getBundle();
+        if (bundle == null)
+            throw new IllegalStateException("Can not select profile " + profile + ", this installer is not a bundle");
+        Map<String, String> files = bundle.getFiles(profile);
+        if (files == null)
+            throw new IllegalArgumentException("Unknown profile " + profile + ", this bundle has: " + String.join(", ", bundle.getProfiles()));
+        Resources.selected = profile;
+        Resources.files = files;
+    }
+
+    // The selected profile, null if this isn't a bundle
+    public static synchronized String getSelected() {
+        Bundle bundle = getBundle();
+        if (bundle != null && selected == null)
+            select(PROFILE != null ? PROFILE : bundle.getDefaultProfile());
+        return selected;
+    }
+
+    private static String resolve(String path) {
+        if (path.charAt(0) != '/')
+            path = '/' + path;
+        if (getSelected() == null)
+            return path;
+        String mapped;
+        synchronized (Resources.class) {
+            mapped = files.get(path);
+        }
+        return mapped == null ? path : '/' + mapped;
+    }
+
+    public static URL find(String path) {
+        return Resources.class.getResource(resolve(path));
+    }
+
+    public static boolean exists(String path) {
+        return find(path) != null;
+    }
+
+    // Returns null if the file isn't there
+    public static InputStream open(String path) {
+        return Resources.class.getResourceAsStream(resolve(path));
+    }
+}
@@ -16,6 +16,7 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -27,8 +28,11 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import net.minecraftforge.installer.actions.Actions;
+import net.minecraftforge.installer.actions.BundleBuilder;
 import net.minecraftforge.installer.actions.OfflineAction;
+import net.minecraftforge.installer.actions.PostProcessors;
 import net.minecraftforge.installer.actions.ProgressCallback;
+import net.minecraftforge.installer.json.Bundle;
 import net.minecraftforge.installer.json.InstallV1;
 import net.minecraftforge.installer.json.Util;
 
@@ -73,6 +77,24 @@ public class SimpleInstaller {
         OptionSpec<Void> offlineOption = parser.accepts("offline", "Don't attempt any network calls");
         OptionSpec<Void> debugOption = parser.accepts("debug", "Run in debug mode -- don't delete any files");
         OptionSpec<URL> mirrorOption = parser.accepts("mirror", "Use a specific mirror URL").withRequiredArg().ofType(URL.class);
+        OptionSpec<File> cacheOption = parser.accepts("cache", "Share downloaded files with other installs using a cache in the specified directory").withRequiredArg().ofType(File.class);
+        OptionSpec<Long> cacheSizeOption = parser.accepts("cacheSize", "Maximum size of the shared cache in megabytes").withRequiredArg().ofType(Long.class);
+        OptionSpec<String> materializeOption = parser.accepts("materialize", "How to place files found in other library folders or the cache: copy (default), auto, hardlink, symlink or reflink. Links share data with the source, so only use them if nothing writes to installed files").withRequiredArg();
+        OptionSpec<Integer> downloadThreadsOption = parser.accepts("downloadThreads", "Number of libraries to download at the same time").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> processorThreadsOption = parser.accepts("processorThreads", "Number of processors that can run at the same time, when they don't depend on each other. Defaults to 1, only raise it if the profile declares every output").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Void> forkOption = parser.accepts("fork", "Run processors in separate Java processes instead of inside the installer");
+        OptionSpec<String> forkXmxOption = parser.accepts("forkXmx", "Maximum heap size for forked processor processes, in the same format as -Xmx").withRequiredArg();
+        OptionSpec<String> forkJvmArgsOption = parser.accepts("forkJvmArgs", "Extra JVM arguments for forked processor processes, separated by spaces").withRequiredArg();
+        OptionSpec<Void> pipelineOption = parser.accepts("pipeline", "Start running processors while libraries are still downloading");
+        OptionSpec<Integer> compressionThreadsOption = parser.accepts("compressionThreads", "Number of threads used to compress files when making an offline installer").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Long> compressionMemoryOption = parser.accepts("compressionMemory", "Megabytes of compressed files to hold in memory when making an offline installer, larger files go through temporary files").withRequiredArg().ofType(Long.class);
+        OptionSpec<File> previousOfflineOption = parser.accepts("previousOffline", "Offline installer built before, used with --makeOffline to copy over anything that hasn't changed instead of downloading and compressing it again").withRequiredArg().ofType(File.class);
+        OptionSpec<Double> storeRatioOption = parser.accepts("storeRatio", "Files added to an offline installer that don't compress below this fraction of their size are stored uncompressed").withRequiredArg().ofType(Double.class);
+        OptionSpec<String> profileOption = parser.accepts("profile", "Which profile to install, when this installer is a bundle of several").withRequiredArg();
+        OptionSpec<File> makeBundleOption = parser.accepts("makeBundle", "Merges the installers given with --bundleFrom into one bundle at the specified path, sharing the files they have in common").withRequiredArg().ofType(File.class);
+        OptionSpec<File> bundleFromOption = parser.accepts("bundleFrom", "Installer to add to the bundle made by --makeBundle, can be used more than once").withRequiredArg().ofType(File.class);
+        OptionSpec<Void> dryRunOption = parser.acceptsAll(Arrays.asList("dryRun", "dry-run"), "Print what the install would download and run, without changing anything");
+        OptionSpec<File> reportOption = parser.accepts("report", "Write a json report of how long each step of the install took to the specified file").withRequiredArg().ofType(File.class);
         OptionSet optionSet = parser.parse(args);
 
         if (optionSet.has(helpOption)) {
@@ -83,6 +105,56 @@ public class SimpleInstaller {
         debug = optionSet.has(debugOption);
         if (optionSet.has(mirrorOption))
             mirror = optionSet.valueOf(mirrorOption);
+        if (optionSet.has(cacheOption))
+            ArtifactCache.configure(optionSet.valueOf(cacheOption), optionSet.has(cacheSizeOption) ? optionSet.valueOf(cacheSizeOption) : ArtifactCache.DEFAULT_SIZE);
+        if (optionSet.has(materializeOption))
+            Materializer.MODE = Materializer.parse(optionSet.valueOf(materializeOption));
+        if (optionSet.has(downloadThreadsOption))
+            DownloadUtils.DOWNLOAD_THREADS = Math.max(1, optionSet.valueOf(downloadThreadsOption));
+        if (optionSet.has(processorThreadsOption))
+            PostProcessors.PROCESSOR_THREADS = Math.max(1, optionSet.valueOf(processorThreadsOption));
+        if (optionSet.has(pipelineOption))
+            PostProcessors.PIPELINE = true;
+        if (optionSet.has(forkOption))
+            PostProcessors.FORK = true;
+        if (optionSet.has(forkXmxOption))
+            PostProcessors.FORK_MAX_HEAP = optionSet.valueOf(forkXmxOption);
+        if (optionSet.has(forkJvmArgsOption))
+            PostProcessors.FORK_JVM_ARGS = PostProcessors.splitArgs(optionSet.valueOf(forkJvmArgsOption));
+        if (optionSet.has(compressionThreadsOption))
+            OfflineAction.COMPRESSION_THREADS = Math.max(1, optionSet.valueOf(compressionThreadsOption));
+        if (optionSet.has(compressionMemoryOption))
+            OfflineAction.COMPRESSION_MEMORY = Math.max(0, optionSet.valueOf(compressionMemoryOption));
+        if (optionSet.has(previousOfflineOption))
+            OfflineAction.PREVIOUS = optionSet.valueOf(previousOfflineOption);
+        if (optionSet.has(storeRatioOption))
+            OfflineAction.STORE_RATIO = optionSet.valueOf(storeRatioOption);
+        if (optionSet.has(reportOption))
+            InstallReport.OUTPUT = optionSet.valueOf(reportOption);
+        if (optionSet.has(profileOption))
+            Resources.PROFILE = optionSet.valueOf(profileOption);
+
+        if (optionSet.has(makeBundleOption)) {
+            List<File> inputs = optionSet.valuesOf(bundleFromOption);
+            if (inputs.isEmpty()) {
+                monitor.stage("No installers to bundle, specify them with --bundleFrom");
+                System.exit(1);
+            }
+            System.exit(BundleBuilder.build(optionSet.valueOf(makeBundleOption), inputs, monitor) ? 0 : 1);
+        }
+
+        if (Resources.PROFILE != null) {
+            if (Resources.getBundle() == null) {
+                monitor.message("Ignoring --profile, this installer only has one");
+            } else {
+                try {
+                    Resources.select(Resources.PROFILE);
+                } catch (IllegalArgumentException e) {
+                    monitor.stage(e.getMessage());
+                    System.exit(1);
+                }
+            }
+        }
 
         String badCerts = "";
         if (optionSet.has(offlineOption) || SimpleInstaller.class.getResource("/" + OfflineAction.OFFLINE_FLAG) != null) {
@@ -130,12 +202,28 @@ public class SimpleInstaller {
                 File target = optionSet.valueOf(option);
                 SimpleInstaller.headless = true;
                 monitor.message("Target Directory: " + target);
+                if (Resources.getBundle() != null)
+                    monitor.message("Installing profile " + Resources.getSelected() + " from bundle");
                 InstallV1 install = Util.loadInstallProfile();
 
+                // Before the mirrors are picked, that downloads the list, tests them, and caches the results
+                if (optionSet.has(dryRunOption)) {
+                    action.getAction(install, monitor).dryRun(target);
+                    System.exit(0);
+                }
+
                 if (install.getMirror() != null)
                     monitor.stage(String.format("Data kindly mirrored by %s at %s", install.getMirror().getName(), install.getMirror().getHomepage()));
 
-                if (!action.getAction(install, monitor).run(target, installer)) {
+                InstallReport.start(action.getButtonLabel());
+                boolean success = false;
+                try {
+                    success = action.getAction(install, monitor).run(target, installer);
+                } finally {
+                    InstallReport.finish(monitor, success);
+                }
+
+                if (!success) {
                     monitor.stage("There was an error during installation");
                     System.exit(1);
                 } else {
@@ -175,6 +263,16 @@ public class SimpleInstaller {
         } catch (Exception e) { }
 
         try {
+            Bundle bundle = Resources.getBundle();
+            if (bundle != null && Resources.PROFILE == null && bundle.getProfiles().size() > 1) {
+                Object[] profiles = bundle.getProfiles().toArray();
+                Object choice = JOptionPane.showInputDialog(null, "This installer holds more than one version, which one do you want?",
+                    "Select version", JOptionPane.QUESTION_MESSAGE, null, profiles, bundle.getDefaultProfile());
+                if (choice == null)
+                    return;
+                Resources.select((String)choice);
+            }
+
             InstallV1 profile = Util.loadInstallProfile();
             if (profile.getMirror() != null)
                 monitor.stage(String.format("Data kindly mirrored by %s at %s", profile.getMirror().getName(), profile.getMirror().getHomepage()));
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Remembers the hash of every file we have verified in a libraries folder, along with its size and modified time when it was hashed.
+ * If neither has changed since, we trust the hash instead of reading the whole file again. This makes re-running the installer
+ * over an existing install cheap, especially on slow network storage.
+ *
+ * Stored as a tab separated file named '.installer_index' in the libraries folder:
+ *   path  size  modified  sha1
+ * Paths are relative to the libraries folder, or absolute for files outside of it, such as processor outputs in the root.
+ */
+public class VerificationIndex {
+    public static final String FILE_NAME = ".installer_index";
+    private static final Map<File, VerificationIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final File root;
+    private final String prefix;
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty = false;
+
+    private VerificationIndex(File root) {
+        this.root = root;
+        String prefix = root.getAbsolutePath().replace('\\', '/');
+        this.prefix = prefix.endsWith("/") ? prefix : prefix + '/';
+        this.file = new File(root, FILE_NAME);
+        load();
+    }
+
+    public static VerificationIndex forRoot(File root) {
+        return INDEXES.computeIfAbsent(root.getAbsoluteFile(), VerificationIndex::new);
+    }
+
+    private String getKey(File target) {
+        String path = target.getAbsolutePath().replace('\\', '/');
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+    }
+
+    /*
+     * Returns the SHA-1 of the file, only reading it if it has changed since the last time we hashed it.
+     * Returns null if the file doesn't exist or can't be read.
+     */
+    public String getSha1(File target) {
+        String key = getKey(target);
+        long size = target.length();
+        long modified = target.lastModified();
+        if (modified == 0) { // Doesn't exist
+            synchronized (this) {
+                if (entries.remove(key) != null)
+                    dirty = true;
+            }
+            return null;
+        }
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.size == size && entry.modified == modified)
+                return entry.sha1;
+        }
+
+        String sha1 = DownloadUtils.getSha1(target);
+        if (sha1 != null)
+            record(key, size, modified, sha1);
+        return sha1;
+    }
+
+    /*
+     * Hashes every file in the list that exists and isn't already in the index, spreading the work across multiple threads.
+     * The results are only stored in the index, so the normal sequential checks later on find them without reading the files again.
+     */
+    public void verify(Collection<File> files, int threads) throws InterruptedException {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile())
+                tasks.add(() -> getSha1(file));
+        }
+        if (tasks.isEmpty())
+            return;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())), r -> {
+            Thread thread = new Thread(r, "File Verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            executor.invokeAll(tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Records the hash of a file we have just written and validated, so it never needs to be read again.
+     */
+    public void record(File target, String sha1) {
+        long modified = target.lastModified();
+        if (sha1 != null && modified != 0)
+            record(getKey(target), target.length(), modified, sha1);
+    }
+
+    private synchronized void record(String key, long size, long modified, String sha1) {
+        entries.put(key, new Entry(size, modified, sha1));
+        dirty = true;
+    }
+
+    /*
+     * Returns true if the file can't possibly be the expected download, because it's the wrong size.
+     * Size is optional in the json, so if it isn't specified this can't tell us anything.
+     */
+    public static boolean isWrongSize(File target, long expected) {
+        return expected > 0 && target.length() != expected;
+    }
+
+    private void load() {
+        if (!file.exists())
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] pts = line.split("\t");
+                if (pts.length != 4)
+                    continue;
+                try {
+                    entries.put(pts[0], new Entry(Long.parseLong(pts[1]), Long.parseLong(pts[2]), pts[3]));
+                } catch (NumberFormatException e) {
+                    // Corrupt line, it will be rehashed
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read verification index " + file + ": " + e.toString());
+            entries.clear();
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty || !root.isDirectory())
+            return;
+
+        File temp = new File(root, FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(e.getKey() + '\t' + entry.size + '\t' + entry.modified + '\t' + entry.sha1);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            System.out.println("Failed to write verification index " + file + ": " + e.toString());
+            temp.delete();
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String sha1;
+
+        private Entry(long size, long modified, String sha1) {
+            this.size = size;
+            this.modified = modified;
+            this.sha1 = sha1;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/*
+ * Reads the central directory of a zip file, so its entries can be copied into a ZipWriter as is, without inflating and deflating them again.
+ * Only what the installer needs is supported: no Zip64, no encryption, and only stored or deflated entries can be opened.
+ */
+public class ZipIndex implements Closeable {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int FLAG_DESCRIPTOR = 0x08;
+    static final int FLAG_UTF8 = 0x800;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName = new HashMap<>();
+
+    private ZipIndex(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.entries = Collections.unmodifiableList(readCentral());
+        for (Entry entry : entries)
+            byName.putIfAbsent(entry.name, entry);
+    }
+
+    public static ZipIndex open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ZipIndex(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry get(String name) {
+        return byName.get(name);
+    }
+
+    private List<Entry> readCentral() throws IOException {
+        // The end record is at the end of the file, followed by a comment of up to 64k
+        long size = channel.size();
+        int tail = (int)Math.min(size, 0xFFFF + 22);
+        ByteBuffer buf = read(size - tail, tail);
+        int end = -1;
+        for (int x = tail - 22; x >= 0; x--) {
+            if (buf.getInt(x) == END_HEADER) {
+                end = x;
+                break;
+            }
+        }
+        if (end == -1)
+            throw new ZipException("Not a zip file, missing end of central directory: " + file);
+
+        int count = buf.getShort(end + 10) & 0xFFFF;
+        long centralSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+        long centralStart = buf.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || centralSize == 0xFFFFFFFFL || centralStart == 0xFFFFFFFFL)
+            throw new ZipException("Zip64 archives are not supported: " + file);
+
+        List<Entry> ret = new ArrayList<>(count);
+        ByteBuffer central = read(centralStart, (int)centralSize);
+        int pos = 0;
+        for (int x = 0; x < count; x++) {
+            if (central.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory entry " + x + " in " + file);
+
+            Entry entry = new Entry();
+            entry.flags = central.getShort(pos + 8) & 0xFFFF;
+            entry.method = central.getShort(pos + 10) & 0xFFFF;
+            entry.dosTime = central.getInt(pos + 12);
+            entry.crc = central.getInt(pos + 16) & 0xFFFFFFFFL;
+            entry.compressedSize = central.getInt(pos + 20) & 0xFFFFFFFFL;
+            entry.size = central.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLen = central.getShort(pos + 28) & 0xFFFF;
+            int extraLen = central.getShort(pos + 30) & 0xFFFF;
+            int commentLen = central.getShort(pos + 32) & 0xFFFF;
+            entry.externalAttributes = central.getInt(pos + 38);
+            entry.localOffset = central.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            if (entry.compressedSize == 0xFFFFFFFFL || entry.size == 0xFFFFFFFFL || entry.localOffset == 0xFFFFFFFFL)
+                throw new ZipException("Zip64 archives are not supported: " + file);
+            if ((entry.flags & 0x01) != 0)
+                throw new ZipException("Encrypted entries are not supported: " + file);
+
+            entry.nameBytes = new byte[nameLen];
+            central.position(pos + 46);
+            central.get(entry.nameBytes);
+            entry.name = new String(entry.nameBytes, (entry.flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            entry.centralExtra = new byte[extraLen];
+            central.get(entry.centralExtra);
+
+            ret.add(entry);
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+        return ret;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1)
+                throw new ZipException("Unexpected end of file: " + file);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // Finds where the entry's data starts, the local header can have a different extra field than the central one.
+    synchronized void resolveLocal(Entry entry) throws IOException {
+        if (entry.dataOffset != -1)
+            return;
+        ByteBuffer header = read(entry.localOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER)
+            throw new ZipException("Invalid local header for " + entry.name + " in " + file);
+        int nameLen = header.getShort(26) & 0xFFFF;
+        int extraLen = header.getShort(28) & 0xFFFF;
+        ByteBuffer extra = read(entry.localOffset + 30 + nameLen, extraLen);
+        entry.localExtra = new byte[extraLen];
+        extra.get(entry.localExtra);
+        entry.dataOffset = entry.localOffset + 30 + nameLen + extraLen;
+    }
+
+    /*
+     * Copies the entry's data, still compressed, to the target channel starting at its current position.
+     */
+    void transferRaw(Entry entry, FileChannel target) throws IOException {
+        resolveLocal(entry);
+        long done = 0;
+        while (done < entry.compressedSize) {
+            long count = channel.transferTo(entry.dataOffset + done, entry.compressedSize - done, target);
+            if (count <= 0)
+                throw new ZipException("Unexpected end of file: " + file);
+            done += count;
+        }
+    }
+
+    /*
+     * Opens the entry's data, still compressed.
+     */
+    public InputStream openRaw(Entry entry) throws IOException {
+        resolveLocal(entry);
+        return new ChannelInputStream(channel, entry.dataOffset, entry.compressedSize);
+    }
+
+    /*
+     * Opens the entry's uncompressed data.
+     */
+    public InputStream open(Entry entry) throws IOException {
+        InputStream raw = openRaw(entry);
+        if (entry.method == 0)
+            return raw;
+        if (entry.method != 8)
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name + " in " + file);
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+        private String name;
+        private byte[] nameBytes;
+        private int flags;
+        private int method;
+        private int dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private int externalAttributes;
+        private byte[] centralExtra;
+        private long localOffset;
+        // Read from the local header when the entry is first copied
+        private byte[] localExtra;
+        private long dataOffset = -1;
+
+        public String getName()          { return name; }
+        public int getMethod()           { return method; }
+        public long getCrc()             { return crc; }
+        public long getCompressedSize()  { return compressedSize; }
+        public long getSize()            { return size; }
+        public boolean isDirectory()     { return name.endsWith("/"); }
+
+        byte[] getNameBytes()            { return nameBytes; }
+        int getFlags()                   { return flags; }
+        int getDosTime()                 { return dosTime; }
+        int getExternalAttributes()      { return externalAttributes; }
+        byte[] getCentralExtra()         { return centralExtra; }
+        byte[] getLocalExtra()           { return localExtra; }
+    }
+
+    // Reads part of a file without moving the channel's position, so several can be open at once
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            return read(buf, 0, 1) == -1 ? -1 : buf[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int count = channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, remaining)), position);
+            if (count <= 0)
+                return -1;
+            position += count;
+            remaining -= count;
+            return count;
+        }
+    }
+}
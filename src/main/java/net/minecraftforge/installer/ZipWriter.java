@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/*
+ * Writes a zip file, either copying entries from another zip as they are, or compressing new ones.
+ * Copied entries keep their compressed data, CRC, sizes and method from the source's central directory, so nothing is inflated or deflated again.
+ * New entries are written with their sizes in the local header, so no data descriptors are needed.
+ * No Zip64, so at most 65535 entries and 4GB.
+ *
+ * With more than one thread, new entries are compressed in the background while later ones are queued, and written in the order they were added.
+ * Compressed data is held in memory up to the memory budget, entries too big for their share of it are compressed to temporary files instead.
+ * When the budget is used up, adding waits for the oldest entry to be written.
+ *
+ * Without a CompressionPolicy every new entry is deflated at the default level, with one the policy picks the level,
+ * or stores the entry if it won't compress.
+ */
+public class ZipWriter implements Closeable {
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final List<Central> central = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final int dosTime = toDosTime(System.currentTimeMillis());
+    private long position = 0;
+
+    private final ExecutorService executor;
+    private final long memoryBudget;
+    private final long maxInMemory;
+    private final CompressionPolicy policy;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private long reserved = 0;
+
+    public ZipWriter(File target) throws IOException {
+        this(target, 1, 0);
+    }
+
+    public ZipWriter(File target, int threads, long memoryBudget) throws IOException {
+        this(target, threads, memoryBudget, null);
+    }
+
+    public ZipWriter(File target, int threads, long memoryBudget, CompressionPolicy policy) throws IOException {
+        this.policy = policy;
+        this.channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.memoryBudget = memoryBudget;
+        this.maxInMemory = threads <= 1 ? 0 : memoryBudget / threads;
+        this.executor = threads <= 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Zip Compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /*
+     * Copies the entry from the source zip as is.
+     */
+    public void copy(ZipIndex source, ZipIndex.Entry entry) throws IOException {
+        copy(source, entry, null);
+    }
+
+    /*
+     * Copies the entry from the source zip as is, under a new name if one is given.
+     * Renamed entries lose their extra fields, as some of them hold the old name.
+     */
+    public void copy(ZipIndex source, ZipIndex.Entry entry, String name) throws IOException {
+        checkName(name == null ? entry.getName() : name);
+        flush();
+        source.resolveLocal(entry);
+        int flags = entry.getFlags() & ~ZipIndex.FLAG_DESCRIPTOR; // Sizes go in the header
+        byte[] nameBytes = entry.getNameBytes();
+        byte[] centralExtra = entry.getCentralExtra();
+        byte[] localExtra = entry.getLocalExtra();
+        if (name != null) {
+            flags |= ZipIndex.FLAG_UTF8;
+            nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            centralExtra = localExtra = new byte[0];
+        }
+        Central header = new Central(nameBytes, flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(),
+            entry.getCompressedSize(), entry.getSize(), entry.getExternalAttributes(), centralExtra, position);
+        writeLocal(header, localExtra);
+        channel.position(position);
+        source.transferRaw(entry, channel);
+        position += entry.getCompressedSize();
+        central.add(header);
+    }
+
+    public void add(String name, File file) throws IOException {
+        if (executor == null) {
+            try (InputStream stream = new FileInputStream(file)) {
+                add(name, stream, file);
+            }
+        } else {
+            checkName(name);
+            boolean inMemory = file.length() <= maxInMemory;
+            queue(name, inMemory ? file.length() : 0, () -> {
+                try (InputStream stream = new FileInputStream(file)) {
+                    return compress(name, stream, file, inMemory);
+                }
+            });
+        }
+    }
+
+    public void add(String name, byte[] data) throws IOException {
+        if (executor == null) {
+            add(name, new ByteArrayInputStream(data));
+        } else {
+            checkName(name);
+            queue(name, data.length, () -> compress(name, new ByteArrayInputStream(data), null, true));
+        }
+    }
+
+    /*
+     * Compresses the stream into a new entry, straight away on this thread.
+     */
+    public void add(String name, InputStream stream) throws IOException {
+        add(name, stream, null);
+    }
+
+    private void add(String name, InputStream stream, File source) throws IOException {
+        checkName(name);
+        flush();
+        long started = System.nanoTime();
+        Sampled sampled = sample(name, stream, source);
+        Central header = new Central(name.getBytes(StandardCharsets.UTF_8), ZipIndex.FLAG_UTF8, sampled.choice.method, dosTime, position);
+        long start = writeLocal(header, new byte[0]);
+
+        Compressed data = encode(sampled, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeFully(ByteBuffer.wrap(b, off, len), position);
+                position += len;
+            }
+        });
+        data.check(name);
+        record(sampled.choice, data, started);
+
+        header.crc = data.crc;
+        header.compressedSize = data.compressedSize;
+        header.size = data.size;
+        // Go back and fill in the sizes now that we know them
+        ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        sizes.putInt((int)header.crc).putInt((int)header.compressedSize).putInt((int)header.size).flip();
+        writeFully(sizes, start + 14);
+        central.add(header);
+    }
+
+    private void queue(String name, long memory, Callable<Compressed> task) throws IOException {
+        // Make room by writing out the oldest entries, they were queued first so they will finish
+        while (!pending.isEmpty() && reserved + memory > memoryBudget)
+            writeOldest();
+        reserved += memory;
+        pending.add(new Pending(name, memory, executor.submit(task)));
+    }
+
+    // Writes every queued entry
+    private void flush() throws IOException {
+        while (!pending.isEmpty())
+            writeOldest();
+    }
+
+    private void writeOldest() throws IOException {
+        Pending next = pending.peek();
+        Compressed data;
+        try {
+            data = next.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing " + next.name);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new IOException("Failed to compress " + next.name, e.getCause());
+        }
+
+        try {
+            data.check(next.name);
+            Central header = new Central(next.name.getBytes(StandardCharsets.UTF_8), ZipIndex.FLAG_UTF8, data.method, dosTime, position);
+            header.crc = data.crc;
+            header.compressedSize = data.compressedSize;
+            header.size = data.size;
+            writeLocal(header, new byte[0]);
+            if (data.buffer != null) {
+                writeFully(ByteBuffer.wrap(data.buffer.getBuffer(), 0, data.buffer.size()), position);
+            } else {
+                File from = data.spill != null ? data.spill : data.source;
+                try (FileChannel spill = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+                    long done = 0;
+                    while (done < data.compressedSize) {
+                        long count = spill.transferTo(done, data.compressedSize - done, channel.position(position + done));
+                        if (count <= 0)
+                            throw new ZipException("Unexpected end of file, was it changed while being added? " + from);
+                        done += count;
+                    }
+                }
+            }
+            position += data.compressedSize;
+            central.add(header);
+        } finally {
+            pending.poll();
+            reserved -= next.memory;
+            data.delete();
+        }
+    }
+
+    /*
+     * Runs on the compression threads. The source file is given if there is one, so stored entries can be copied
+     * straight from it when they're written instead of being buffered.
+     */
+    private Compressed compress(String name, InputStream stream, File source, boolean inMemory) throws IOException {
+        long started = System.nanoTime();
+        Sampled sampled = sample(name, stream, source);
+        Compressed ret;
+        if (sampled.choice.method == 0 && source != null) {
+            ret = encode(sampled, null);
+            ret.source = source;
+        } else if (inMemory) {
+            Buffer buffer = new Buffer();
+            ret = encode(sampled, buffer);
+            ret.buffer = buffer;
+        } else {
+            File spill = Files.createTempFile("forge_installer_zip", ".tmp").toFile();
+            try (OutputStream out = new FileOutputStream(spill)) {
+                ret = encode(sampled, out);
+                ret.spill = spill;
+            } catch (IOException | RuntimeException e) {
+                spill.delete();
+                throw e;
+            }
+        }
+        record(sampled.choice, ret, started);
+        return ret;
+    }
+
+    /*
+     * Reads the start of the stream for the policy to look at. If it's from a file, the end of the file is looked at as well,
+     * archives keep their directory at the end, which is mostly file names and compresses far better than the data before it.
+     */
+    private Sampled sample(String name, InputStream stream, File source) throws IOException {
+        if (policy == null)
+            return new Sampled(CompressionPolicy.DEFLATE, new byte[0], 0, stream);
+
+        byte[] sample = new byte[CompressionPolicy.SAMPLE_SIZE];
+        int len = 0;
+        int read;
+        while (len < sample.length && (read = stream.read(sample, len, sample.length - len)) != -1)
+            len += read;
+
+        long tail = source == null ? 0 : Math.min(CompressionPolicy.SAMPLE_SIZE, source.length() - len);
+        if (tail <= 0)
+            return new Sampled(policy.choose(name, sample, len), sample, len, stream);
+
+        byte[] both = Arrays.copyOf(sample, len + (int)tail);
+        try (RandomAccessFile raf = new RandomAccessFile(source, "r")) {
+            raf.seek(source.length() - tail);
+            raf.readFully(both, len, (int)tail);
+        }
+        return new Sampled(policy.choose(name, both, both.length), sample, len, stream);
+    }
+
+    private void record(CompressionPolicy.Choice choice, Compressed data, long started) {
+        if (policy != null)
+            policy.record(choice, data.size, data.compressedSize, System.nanoTime() - started);
+    }
+
+    // Writes the entry's data to the target, which can be null if only the CRC and sizes are wanted.
+    private static Compressed encode(Sampled sampled, OutputStream target) throws IOException {
+        InputStream stream = new SequenceInputStream(new ByteArrayInputStream(sampled.sample, 0, sampled.length), sampled.rest);
+        if (sampled.choice.method != 0)
+            return deflate(stream, target, sampled.choice.level);
+
+        Compressed ret = new Compressed();
+        ret.method = 0;
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        int len;
+        while ((len = stream.read(buf)) != -1) {
+            crc.update(buf, 0, len);
+            if (target != null)
+                target.write(buf, 0, len);
+            ret.size += len;
+        }
+        ret.compressedSize = ret.size;
+        ret.crc = crc.getValue();
+        return ret;
+    }
+
+    private static Compressed deflate(InputStream stream, OutputStream target, int level) throws IOException {
+        Compressed ret = new Compressed();
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        byte[] in = new byte[64 * 1024];
+        byte[] out = new byte[64 * 1024];
+        try {
+            int len;
+            while ((len = stream.read(in)) != -1) {
+                crc.update(in, 0, len);
+                ret.size += len;
+                deflater.setInput(in, 0, len);
+                while (!deflater.needsInput())
+                    ret.compressedSize += write(target, out, deflater.deflate(out));
+            }
+            deflater.finish();
+            while (!deflater.finished())
+                ret.compressedSize += write(target, out, deflater.deflate(out));
+        } finally {
+            deflater.end();
+        }
+        ret.crc = crc.getValue();
+        return ret;
+    }
+
+    private static int write(OutputStream target, byte[] data, int len) throws IOException {
+        if (len > 0)
+            target.write(data, 0, len);
+        return len;
+    }
+
+    private void checkName(String name) throws ZipException {
+        if (!names.add(name))
+            throw new ZipException("duplicate entry: " + name);
+        if (names.size() > 0xFFFF)
+            throw new ZipException("Too many entries, Zip64 is not supported");
+    }
+
+    // Returns where the header starts
+    private long writeLocal(Central header, byte[] extra) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(30 + header.name.length + extra.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(ZipIndex.LOCAL_HEADER);
+        buf.putShort((short)(header.method == 0 ? 10 : 20));
+        buf.putShort((short)header.flags);
+        buf.putShort((short)header.method);
+        buf.putInt(header.dosTime);
+        buf.putInt((int)header.crc);
+        buf.putInt((int)header.compressedSize);
+        buf.putInt((int)header.size);
+        buf.putShort((short)header.name.length);
+        buf.putShort((short)extra.length);
+        buf.put(header.name);
+        buf.put(extra);
+        buf.flip();
+        long start = position;
+        writeFully(buf, start);
+        position += buf.limit();
+        return start;
+    }
+
+    private void writeFully(ByteBuffer buf, long at) throws IOException {
+        while (buf.hasRemaining())
+            at += channel.write(buf, at);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            long start = position;
+            for (Central header : central) {
+                ByteBuffer buf = ByteBuffer.allocate(46 + header.name.length + header.extra.length).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(ZipIndex.CENTRAL_HEADER);
+                buf.putShort((short)20); // Made by
+                buf.putShort((short)(header.method == 0 ? 10 : 20));
+                buf.putShort((short)header.flags);
+                buf.putShort((short)header.method);
+                buf.putInt(header.dosTime);
+                buf.putInt((int)header.crc);
+                buf.putInt((int)header.compressedSize);
+                buf.putInt((int)header.size);
+                buf.putShort((short)header.name.length);
+                buf.putShort((short)header.extra.length);
+                buf.putShort((short)0); // Comment
+                buf.putShort((short)0); // Disk
+                buf.putShort((short)0); // Internal attributes
+                buf.putInt(header.externalAttributes);
+                buf.putInt((int)header.offset);
+                buf.put(header.name);
+                buf.put(header.extra);
+                buf.flip();
+                writeFully(buf, position);
+                position += buf.limit();
+            }
+
+            if (position > MAX_SIZE)
+                throw new ZipException("Archive too large, Zip64 is not supported");
+
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(ZipIndex.END_HEADER);
+            end.putShort((short)0);
+            end.putShort((short)0);
+            end.putShort((short)central.size());
+            end.putShort((short)central.size());
+            end.putInt((int)(position - start));
+            end.putInt((int)start);
+            end.putShort((short)0);
+            end.flip();
+            writeFully(end, position);
+            position += 22;
+            channel.truncate(position);
+        } finally {
+            if (executor != null) {
+                // Tasks that never started are dropped without being cancelled, so their futures would never finish. They're the same
+                // objects as the futures we were given, so cancel them. The rest are interrupted, but may still finish.
+                for (Runnable task : executor.shutdownNow())
+                    ((Future<?>)task).cancel(false);
+                // Anything still queued failed to be written, clean up whatever it finished compressing
+                for (Pending next : pending) {
+                    try {
+                        next.future.get().delete();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (ExecutionException | CancellationException e) {
+                        // Nothing to clean up
+                    }
+                }
+            }
+            channel.close();
+        }
+    }
+
+    private static int toDosTime(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25 | (cal.get(Calendar.MONTH) + 1) << 21 | cal.get(Calendar.DAY_OF_MONTH) << 16 |
+            cal.get(Calendar.HOUR_OF_DAY) << 11 | cal.get(Calendar.MINUTE) << 5 | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Central {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private final int dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private final int externalAttributes;
+        private final byte[] extra;
+        private final long offset;
+
+        // A new entry, the sizes are filled in once it's compressed
+        private Central(byte[] name, int flags, int method, int dosTime, long offset) {
+            this(name, flags, method, dosTime, 0, 0, 0, 0, new byte[0], offset);
+        }
+
+        private Central(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize, long size, int externalAttributes, byte[] extra, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.extra = extra;
+            this.offset = offset;
+        }
+    }
+
+    private static class Pending {
+        private final String name;
+        private final long memory;
+        private final Future<Compressed> future;
+
+        private Pending(String name, long memory, Future<Compressed> future) {
+            this.name = name;
+            this.memory = memory;
+            this.future = future;
+        }
+    }
+
+    private static class Sampled {
+        private final CompressionPolicy.Choice choice;
+        private final byte[] sample;
+        private final int length;
+        // Whatever is left after the sample
+        private final InputStream rest;
+
+        private Sampled(CompressionPolicy.Choice choice, byte[] sample, int length, InputStream rest) {
+            this.choice = choice;
+            this.sample = sample;
+            this.length = length;
+            this.rest = rest;
+        }
+    }
+
+    private static class Compressed {
+        private int method = 8;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        // One of these holds the data, source is the original file of a stored entry and is never deleted
+        private Buffer buffer;
+        private File spill;
+        private File source;
+
+        private void check(String name) throws ZipException {
+            if (size > MAX_SIZE || compressedSize > MAX_SIZE)
+                throw new ZipException("Entry too large, Zip64 is not supported: " + name);
+        }
+
+        private void delete() {
+            if (spill != null)
+                spill.delete();
+        }
+    }
+
+    // Lets us write the buffer out without copying it
+    private static class Buffer extends ByteArrayOutputStream {
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -10,15 +10,36 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import javax.swing.JOptionPane;
 
+import net.minecraftforge.installer.ArtifactCache;
 import net.minecraftforge.installer.DownloadUtils;
+import net.minecraftforge.installer.InstallReport;
+import net.minecraftforge.installer.MirrorHealth;
+import net.minecraftforge.installer.Resources;
 import net.minecraftforge.installer.SimpleInstaller;
 import net.minecraftforge.installer.json.Artifact;
 import net.minecraftforge.installer.json.InstallV1;
+import net.minecraftforge.installer.json.Mirror;
 import net.minecraftforge.installer.SwingUtil;
+import net.minecraftforge.installer.VerificationIndex;
 import net.minecraftforge.installer.json.Util;
 import net.minecraftforge.installer.json.Version;
 import net.minecraftforge.installer.json.Version.Download;
@@ -30,13 +51,15 @@ public abstract class Action {
     protected final ProgressCallback monitor;
     protected final PostProcessors processors;
     protected final Version version;
-    private List<Artifact> grabbed = new ArrayList<>();
+    protected final InstallPlan plan;
+    private List<Artifact> grabbed = Collections.synchronizedList(new ArrayList<>());
 
     protected Action(InstallV1 profile, ProgressCallback monitor, boolean isClient) {
         this.profile = profile;
         this.monitor = monitor;
-        this.processors = new PostProcessors(profile, isClient, monitor);
         this.version = Util.loadVersion(profile);
+        this.plan = InstallPlan.of(profile, version, isClient);
+        this.processors = new PostProcessors(plan, monitor);
     }
 
     protected void error(String message) {
@@ -51,37 +74,278 @@ public abstract class Action {
     public abstract String getSuccessMessage();
 
     protected List<Library> getLibraries() {
-        List<Library> libraries = new ArrayList<>();
-        libraries.addAll(Arrays.asList(version.getLibraries()));
-        libraries.addAll(Arrays.asList(processors.getLibraries()));
-        return libraries;
+        return plan.getLibraries();
+    }
+
+    // The libraries that need to be on disk once downloadLibraries is done, normally all of them
+    protected List<Library> getLibrariesToDownload() {
+        return getLibraries();
+    }
+
+    // Other library folders to look for files in before downloading them
+    protected List<File> getAdditionalLibDirs() {
+        return Collections.emptyList();
+    }
+
+    // Where the vanilla jars for each side go when installing to the target
+    protected Map<String, File> getVanillaJars(File target) {
+        return Collections.emptyMap();
+    }
+
+    protected List<PostProcessors> getAllProcessors() {
+        return Collections.singletonList(processors);
+    }
+
+    /*
+     * Logs what running this action with the same target would do, without downloading anything or changing anything on disk.
+     * Library sources are checked in the same order as DownloadUtils.downloadLibrary, with local folders only matched by size.
+     */
+    public void dryRun(File target) {
+        File librariesDir = new File(target, "libraries");
+        VerificationIndex index = VerificationIndex.forRoot(librariesDir);
+        ArtifactCache cache = ArtifactCache.get();
+        monitor.stage("Dry run, nothing will be downloaded or written");
+        if (SimpleInstaller.mirror != null)
+            monitor.message("Mirror: " + SimpleInstaller.mirror);
+        else if (profile.getMirrorList() != null)
+            monitor.message("Mirrors: listed at " + profile.getMirrorList() + ", not contacted in a dry run");
+
+        monitor.start("Libraries");
+        int present = 0, bundled = 0, cached = 0, local = 0, generated = 0, fetch = 0;
+        long bytes = 0;
+        boolean unknownSize = false;
+        for (Library lib : getLibraries()) {
+            Artifact artifact = lib.getName();
+            File file = artifact.getLocalPath(librariesDir);
+            LibraryDownload download = InstallPlan.getDownload(lib);
+            String sha1 = download == null ? null : download.getSha1();
+            long size = download == null ? 0 : download.getSize();
+
+            String status;
+            if (file.exists() && (sha1 == null || (!VerificationIndex.isWrongSize(file, size) && sha1.equals(index.getSha1(file))))) {
+                status = "present";
+                present++;
+            } else if (Resources.exists("/maven/" + artifact.getPath())) {
+                status = "bundled in the installer";
+                bundled++;
+            } else if (cache != null && cache.contains(sha1)) {
+                status = "in the cache";
+                cached++;
+            } else if (sha1 != null && getAdditionalLibDirs().stream().map(dir -> new File(dir, artifact.getPath())).anyMatch(f -> f.exists() && !VerificationIndex.isWrongSize(f, size))) {
+                status = "found in a local library folder";
+                local++;
+            } else if (download == null || download.getUrl() == null || download.getUrl().isEmpty()) {
+                status = "no url, expected to be generated by the processors";
+                generated++;
+            } else {
+                status = "download" + (size > 0 ? " " + size + " bytes" : ", size unknown");
+                fetch++;
+                bytes += size;
+                unknownSize |= size <= 0;
+            }
+            monitor.message("  " + artifact.getDescriptor() + ": " + status, ProgressCallback.MessagePriority.LOW);
+        }
+        monitor.message(String.format("  %d libraries: %d present, %d bundled, %d in the cache, %d in local folders, %d generated, %d to download",
+            getLibraries().size(), present, bundled, cached, local, generated, fetch));
+        monitor.message(String.format("  Bytes to download: %d (%.1f MB)%s", bytes, bytes / 1024.0 / 1024.0, unknownSize ? ", plus libraries of unknown size" : ""));
+
+        for (Map.Entry<String, File> e : getVanillaJars(target).entrySet()) {
+            String side = e.getKey();
+            String status = e.getValue().exists() ? "present" :
+                Resources.exists("/cache/vanilla/" + side + ".jar") ? "bundled in the installer" :
+                "download, size listed in the Minecraft version manifest";
+            monitor.message("Minecraft " + side + " jar " + e.getValue() + ": " + status);
+        }
+
+        for (PostProcessors procs : getAllProcessors()) {
+            monitor.start("Processors");
+            int run = procs.dryRun(librariesDir, monitor);
+            monitor.message("  " + run + " processors to run");
+        }
+    }
+
+    /*
+     * Downloads the libraries and then runs the processors. In pipelined mode the processors are started on their own thread as soon as
+     * the downloads are queued, and each one waits only for the libraries it uses, which are queued first.
+     */
+    protected boolean downloadLibrariesAndProcess(File librariesDir, List<File> additionalLibDirs, File minecraft, File root, File installer) throws ActionCanceledException {
+        if (!PostProcessors.PIPELINE) {
+            if (!downloadLibraries(librariesDir, additionalLibDirs))
+                return false;
+            checkCancel();
+            InstallReport.phase("Processors");
+            return processors.process(librariesDir, minecraft, root, installer) != null;
+        }
+
+        AtomicReference<Set<File>> result = new AtomicReference<>();
+        return downloadLibraries(librariesDir, additionalLibDirs, gate -> {
+            Thread thread = new Thread(() -> result.set(processors.process(librariesDir, minecraft, root, installer, gate)), "Processors");
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }) && result.get() != null;
     }
 
     protected boolean downloadLibraries(File librariesDir, List<File> additionalLibDirs) throws ActionCanceledException {
+        return downloadLibraries(librariesDir, additionalLibDirs, null);
+    }
+
+    /*
+     * If pipeline isn't null, it's given a gate for the downloads once they are queued, and returns the thread running the processors.
+     * That thread is waited on before returning, even if a download fails, as processors that don't need the failed library will still be running.
+     */
+    private boolean downloadLibraries(File librariesDir, List<File> additionalLibDirs, Function<PostProcessors.LibraryGate, Thread> pipeline) throws ActionCanceledException {
         monitor.start("Downloading libraries");
         monitor.message(String.format("Found %d additional library directories", additionalLibDirs.size()));
 
-        List<Library> libraries = getLibraries();
+        List<Library> libraries = new ArrayList<>(getLibrariesToDownload()); // Already deduplicated by the plan
 
-        StringBuilder output = new StringBuilder();
-        final double steps = libraries.size();
-        int progress = 1;
+        verifyExisting(librariesDir, libraries);
+        InstallReport.phase(pipeline == null ? "Libraries" : "Libraries and processors");
 
-        for (Library lib : libraries) {
-            checkCancel();
-            monitor.progress(progress++ / steps);
-            if (!DownloadUtils.downloadLibrary(monitor, profile.getMirror(), lib, librariesDir, grabbed, additionalLibDirs)) {
-                LibraryDownload download = lib.getDownloads() == null ? null :  lib.getDownloads().getArtifact();
-                if (download != null && !download.getUrl().isEmpty()) // If it doesn't have a URL we can't download it, assume we install it later
-                    output.append('\n').append(lib.getName());
+        if (pipeline != null) {
+            // Processors could already be writing their outputs while they download, and a bad checksum deletes the file.
+            // They check their outputs themselves, and make them if they're missing, so leave them alone.
+            Set<String> outputs = new HashSet<>();
+            for (File output : processors.getOutputFiles(librariesDir))
+                outputs.add(PostProcessors.path(output));
+            libraries.removeIf(lib -> {
+                boolean skip = outputs.contains(PostProcessors.path(lib.getName().getLocalPath(librariesDir)));
+                if (skip)
+                    monitor.message("  Skipping " + lib.getName() + ", it is made by the processors");
+                return skip;
+            });
+
+            // Downloads are started in the order they're submitted, so put the ones the first processors need at the front.
+            List<String> order = processors.getLibraryOrder(librariesDir);
+            libraries.sort(Comparator.comparingInt(lib -> {
+                int idx = order.indexOf(PostProcessors.path(lib.getName().getLocalPath(librariesDir)));
+                return idx == -1 ? Integer.MAX_VALUE : idx;
+            }));
+        }
+
+        int threads = Math.max(1, Math.min(DownloadUtils.DOWNLOAD_THREADS, libraries.size()));
+        monitor.message(String.format("Downloading %d libraries using %d threads", libraries.size(), threads));
+
+        List<Mirror> mirrors = profile.getMirrors(); // Resolve this once up front, so the workers don't all race to download the mirror list
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Library Downloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<LibraryTask> completion = new ExecutorCompletionService<>(executor);
+
+        Thread processing = null;
+        try {
+            Map<String, Future<LibraryTask>> byPath = new HashMap<>();
+            for (Library lib : libraries) {
+                Future<LibraryTask> future = completion.submit(() -> {
+                    LibraryTask task = new LibraryTask(lib);
+                    task.success = DownloadUtils.downloadLibrary(task.log, mirrors, lib, librariesDir, grabbed, additionalLibDirs);
+                    return task;
+                });
+                byPath.put(PostProcessors.path(lib.getName().getLocalPath(librariesDir)), future);
+            }
+
+            if (pipeline != null) {
+                monitor.message("Starting processors while libraries download");
+                processing = pipeline.apply(new DownloadGate(byPath));
             }
+
+            Map<Library, Boolean> results = new HashMap<>();
+            final double steps = libraries.size();
+            int progress = 1;
+            while (results.size() < libraries.size()) {
+                checkCancel();
+                Future<LibraryTask> future = completion.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null)
+                    continue;
+
+                LibraryTask task;
+                try {
+                    task = future.get();
+                } catch (ExecutionException e) {
+                    // downloadLibrary reports its own failures, so this is something unexpected. Log it and fail the install.
+                    e.getCause().printStackTrace();
+                    error("Unexpected error downloading libraries: " + e.getCause());
+                    return false;
+                }
+
+                monitor.progress(progress++ / steps);
+                task.log.flush(monitor);
+                results.put(task.library, task.success);
+            }
+
+            if (!mirrors.isEmpty()) {
+                monitor.message("Mirror stats:");
+                for (Mirror mirror : mirrors)
+                    monitor.message("  " + MirrorHealth.get(mirror));
+            }
+
+            VerificationIndex.forRoot(librariesDir).save();
+            ArtifactCache cache = ArtifactCache.get();
+            if (cache != null)
+                cache.trim();
+
+            // Report failures in the same order as the library list, regardless of the order they finished in.
+            StringBuilder output = new StringBuilder();
+            for (Library lib : libraries) {
+                if (!results.get(lib)) {
+                    LibraryDownload download = lib.getDownloads() == null ? null :  lib.getDownloads().getArtifact();
+                    if (download != null && !download.getUrl().isEmpty()) // If it doesn't have a URL we can't download it, assume we install it later
+                        output.append('\n').append(lib.getName());
+                }
+            }
+            String bad = output.toString();
+
+            if (processing != null) {
+                while (processing.isAlive()) {
+                    checkCancel();
+                    processing.join(100);
+                }
+            }
+
+            if (!bad.isEmpty()) {
+                error("These libraries failed to download. Try again.\n" + bad);
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            throw new ActionCanceledException(e);
+        } finally {
+            executor.shutdownNow();
+            if (processing != null && processing.isAlive())
+                processing.interrupt();
         }
-        String bad = output.toString();
-        if (!bad.isEmpty()) {
-            error("These libraries failed to download. Try again.\n" + bad);
-            return false;
+    }
+
+    /*
+     * When installing over an existing install, most of the libraries and processor outputs are already there.
+     * Hash all of them up front across every core, instead of one at a time as the download and processor steps get to them.
+     * Those steps then find the results in the verification index.
+     */
+    private void verifyExisting(File librariesDir, List<Library> libraries) throws ActionCanceledException {
+        List<File> files = new ArrayList<>();
+        for (Library lib : libraries) {
+            LibraryDownload download = lib.getDownloads() == null ? null : lib.getDownloads().getArtifact();
+            if (download == null || download.getSha1() == null)
+                continue;
+            File target = lib.getName().getLocalPath(librariesDir);
+            if (target.exists() && !VerificationIndex.isWrongSize(target, download.getSize()))
+                files.add(target);
+        }
+        files.addAll(processors.getOutputFiles(librariesDir));
+
+        if (files.isEmpty())
+            return;
+
+        monitor.message("Verifying existing files");
+        InstallReport.phase("Verify existing files");
+        try {
+            VerificationIndex.forRoot(librariesDir).verify(files, Runtime.getRuntime().availableProcessors());
+        } catch (InterruptedException e) {
+            throw new ActionCanceledException(e);
         }
-        return true;
     }
 
     protected int downloadedCount() {
@@ -101,13 +365,14 @@ public abstract class Action {
     }
 
     protected boolean downloadVanilla(File target, String side) {
+        InstallReport.phase("Minecraft " + side + " jar");
         if (!target.exists()) {
             File parent = target.getParentFile();
             if (!parent.exists())
                 parent.mkdirs();
 
             String resource = "/cache/vanilla/" + side + ".jar";
-            try (final InputStream input = Action.class.getResourceAsStream(resource)) {
+            try (final InputStream input = Resources.open(resource)) {
                 if (input != null) {
                     monitor.message("  Extracting from " + resource);
                     Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
@@ -144,4 +409,43 @@ public abstract class Action {
 
         return true;
     }
+
+    private static class DownloadGate implements PostProcessors.LibraryGate {
+        private final Map<String, Future<LibraryTask>> downloads;
+
+        private DownloadGate(Map<String, Future<LibraryTask>> downloads) {
+            this.downloads = downloads;
+        }
+
+        @Override
+        public boolean isReady(String path) {
+            Future<LibraryTask> future = downloads.get(path);
+            return future == null || future.isDone();
+        }
+
+        @Override
+        public boolean await(String path) throws InterruptedException {
+            Future<LibraryTask> future = downloads.get(path);
+            if (future == null)
+                return true;
+            try {
+                LibraryTask task = future.get();
+                // Without a url it's something we install later, the same as downloadLibraries treats it
+                LibraryDownload download = InstallPlan.getDownload(task.library);
+                return task.success || download == null || download.getUrl() == null || download.getUrl().isEmpty();
+            } catch (ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class LibraryTask {
+        private final Library library;
+        private final BufferedCallback log = new BufferedCallback();
+        private boolean success;
+
+        private LibraryTask(Library library) {
+            this.library = library;
+        }
+    }
 }
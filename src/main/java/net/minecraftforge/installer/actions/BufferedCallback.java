@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Collects messages from a worker thread so that they can be replayed on the install thread as one block.
+ * Keeps each library or processor's log readable, and keeps the Swing progress frame from being touched off thread.
+ */
+class BufferedCallback implements ProgressCallback {
+    private final List<String> messages = new ArrayList<>();
+    private final List<MessagePriority> priorities = new ArrayList<>();
+
+    @Override
+    public synchronized void message(String message, MessagePriority priority) {
+        messages.add(message);
+        priorities.add(priority);
+    }
+
+    synchronized void flush(ProgressCallback target) {
+        // Lock the target too, so two blocks being flushed from different threads don't get mixed together
+        synchronized (target) {
+            for (int x = 0; x < messages.size(); x++)
+                target.message(messages.get(x), priorities.get(x));
+        }
+        messages.clear();
+        priorities.clear();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraftforge.installer.Resources;
+import net.minecraftforge.installer.ZipIndex;
+import net.minecraftforge.installer.ZipWriter;
+import net.minecraftforge.installer.json.Bundle;
+import net.minecraftforge.installer.json.InstallV1;
+import net.minecraftforge.installer.json.Util;
+
+/*
+ * Merges several installers, normally offline ones for builds of the same Minecraft version, into one bundle.
+ * Each profile's install_profile.json and version json go under profiles/<version>/, and everything in maven/, cache/ and data/
+ * goes in pool/<sha1>, once no matter how many profiles use it. The rest, the installer itself, is taken from the first input
+ * that has it. Nothing is inflated or deflated, entries are copied as they are.
+ * That includes the offline flag, which applies to the whole jar, so offline and online installers can't be mixed.
+ */
+public class BundleBuilder {
+    public static boolean build(File output, List<File> inputs, ProgressCallback monitor) {
+        Bundle bundle = new Bundle();
+        Set<String> pooled = new HashSet<>();
+        long total = 0;
+        Boolean offline = null;
+        boolean success = false;
+
+        monitor.stage("Building bundle " + output);
+        try (ZipWriter zout = new ZipWriter(output)) {
+            for (File input : inputs) {
+                total += input.length();
+                try (PreviousBundle zin = PreviousBundle.open(input)) {
+                    ZipIndex.Entry profileEntry = zin.getZip().get("install_profile.json");
+                    if (profileEntry == null || zin.getZip().get(Resources.BUNDLE.substring(1)) != null) {
+                        monitor.stage("Not an installer, or already a bundle: " + input);
+                        return false;
+                    }
+
+                    boolean isOffline = zin.getZip().get(OfflineAction.OFFLINE_FLAG) != null;
+                    if (offline == null) {
+                        offline = isOffline;
+                    } else if (offline != isOffline) {
+                        monitor.stage("Can not bundle offline and online installers together: " + input);
+                        return false;
+                    }
+
+                    InstallV1 profile;
+                    try (InputStream stream = zin.getZip().open(profileEntry)) {
+                        profile = Util.loadInstallProfile(stream);
+                    }
+                    String name = profile.getVersion();
+                    if (bundle.getFiles(name) != null) {
+                        monitor.stage("Profile " + name + " is in more than one input: " + input);
+                        return false;
+                    }
+                    monitor.message("Adding profile " + name + " from " + input);
+
+                    String json = profile.getJson().startsWith("/") ? profile.getJson().substring(1) : profile.getJson();
+                    Map<String, String> files = new LinkedHashMap<>();
+                    int shared = 0;
+                    for (ZipIndex.Entry entry : zin.getZip().getEntries()) {
+                        String path = entry.getName();
+                        if (entry.isDirectory() || path.equals(PreviousBundle.HASHES))
+                            continue;
+
+                        if (path.equals("install_profile.json") || path.equals(json)) {
+                            String target = "profiles/" + name + '/' + path;
+                            zout.copy(zin.getZip(), entry, target);
+                            files.put('/' + path, target);
+                        } else if (path.startsWith("maven/") || path.startsWith("cache/") || path.startsWith("data/")) {
+                            String target = "pool/" + zin.getSha1(entry);
+                            if (pooled.add(target))
+                                zout.copy(zin.getZip(), entry, target);
+                            else
+                                shared++;
+                            files.put('/' + path, target);
+                        } else if (!zout.contains(path)) {
+                            zout.copy(zin.getZip(), entry);
+                        }
+                    }
+                    monitor.message(String.format("  %d files, %d already in the pool", files.size(), shared));
+                    bundle.addProfile(name, files);
+                    if (bundle.getProfiles().size() == 1)
+                        bundle.setDefaultProfile(name);
+                }
+            }
+
+            zout.add(Resources.BUNDLE.substring(1), Util.GSON.toJson(bundle).getBytes(StandardCharsets.UTF_8));
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            monitor.stage("Failed to build bundle: " + e.getMessage());
+            return false;
+        } finally {
+            // The writer is closed by now, don't leave half a bundle behind for someone to try and use
+            if (!success)
+                output.delete();
+        }
+
+        monitor.message(String.format("Bundled %d profiles, %d pooled files, %.1f MB down from %.1f MB",
+            bundle.getProfiles().size(), pooled.size(), output.length() / 1024.0 / 1024.0, total / 1024.0 / 1024.0));
+        return true;
+    }
+}
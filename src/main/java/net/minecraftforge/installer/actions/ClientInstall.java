@@ -9,6 +9,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import net.minecraftforge.installer.InstallReport;
+import net.minecraftforge.installer.Resources;
 import net.minecraftforge.installer.json.InstallV1;
 import net.minecraftforge.installer.json.Util;
 import com.google.gson.JsonObject;
@@ -42,7 +46,7 @@ public class ClientInstall extends Action {
 
         // Extract version json
         monitor.stage("Extracting json");
-        try (InputStream stream = Util.class.getResourceAsStream(profile.getJson())) {
+        try (InputStream stream = Resources.open(profile.getJson())) {
             File json = new File(versionRoot, profile.getVersion() + '/' + profile.getVersion() + ".json");
             json.getParentFile().mkdirs();
             Files.copy(stream, json.toPath(), StandardCopyOption.REPLACE_EXISTING);
@@ -65,22 +69,18 @@ public class ClientInstall extends Action {
         }
         checkCancel();
 
-        File clientTarget = new File(versionVanilla, profile.getMinecraft() + ".jar");
+        File clientTarget = getVanillaJars(target).get("client");
         if (!downloadVanilla(clientTarget, "client"))
             return false;
 
-        // Download Libraries
-        if (!downloadLibraries(librariesDir, new ArrayList<>()))
-            return false;
-
-        checkCancel();
-
-        if (processors.process(librariesDir, clientTarget, target, installer) == null)
+        // Download Libraries and run processors
+        if (!downloadLibrariesAndProcess(librariesDir, new ArrayList<>(), clientTarget, target, installer))
             return false;
 
         checkCancel();
 
         monitor.stage("Injecting profile");
+        InstallReport.phase("Injecting profile");
         if (launcherProfiles.exists() && !injectProfile(launcherProfiles))
             return false;
         if (launcherProfilesMS.exists() && !injectProfile(launcherProfilesMS))
@@ -89,6 +89,11 @@ public class ClientInstall extends Action {
         return true;
     }
 
+    @Override
+    protected Map<String, File> getVanillaJars(File target) {
+        return Collections.singletonMap("client", new File(target, "versions/" + profile.getMinecraft() + '/' + profile.getMinecraft() + ".jar"));
+    }
+
     private boolean injectProfile(File target) {
         try {
             JsonObject json = null;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraftforge.installer.json.Install.Processor;
+import net.minecraftforge.installer.json.InstallV1;
+import net.minecraftforge.installer.json.Version;
+import net.minecraftforge.installer.json.Version.Library;
+import net.minecraftforge.installer.json.Version.LibraryDownload;
+
+/*
+ * Everything an install of one side needs, worked out once from the install profile and version json before anything is done.
+ * Libraries are listed once each, even if both the version and the processors ask for them, in the order they are first listed.
+ * Actions and processors run from this instead of going back to the profile, and --dryRun prints it without doing anything.
+ */
+public class InstallPlan {
+    private final String minecraft;
+    private final boolean isClient;
+    private final List<Library> libraries;
+    private final List<Processor> processors;
+    private final Map<String, String> data;
+
+    private InstallPlan(String minecraft, boolean isClient, List<Library> libraries, List<Processor> processors, Map<String, String> data) {
+        this.minecraft = minecraft;
+        this.isClient = isClient;
+        this.libraries = Collections.unmodifiableList(libraries);
+        this.processors = Collections.unmodifiableList(processors);
+        this.data = Collections.unmodifiableMap(data);
+    }
+
+    public static InstallPlan of(InstallV1 profile, Version version, boolean isClient) {
+        List<Processor> processors = profile.getProcessors(isClient ? "client" : "server");
+
+        List<Library> libraries = new ArrayList<>(Arrays.asList(version.getLibraries()));
+        // The profile's libraries are only what the processors need, so skip them if there is nothing to run
+        if (!processors.isEmpty())
+            libraries.addAll(Arrays.asList(profile.getLibraries()));
+
+        return new InstallPlan(profile.getMinecraft(), isClient, dedupe(libraries), processors, profile.getData(isClient));
+    }
+
+    /*
+     * Returns a plan that also fetches the other plan's libraries, for actions that set up both sides at once.
+     */
+    public InstallPlan withLibrariesFrom(InstallPlan other) {
+        List<Library> libraries = new ArrayList<>(this.libraries);
+        libraries.addAll(other.libraries);
+        return new InstallPlan(minecraft, isClient, dedupe(libraries), processors, data);
+    }
+
+    /*
+     * The same artifact can be listed more than once, fetching it twice at the same time would fight over the target file.
+     * If the copies disagree on what to download, the last one wins, it's what used to end up on disk when they were fetched one
+     * after the other, and what the processors were run against. That's likely a broken profile though, so say so.
+     */
+    private static List<Library> dedupe(List<Library> libraries) {
+        Map<String, Library> ret = new LinkedHashMap<>();
+        for (Library lib : libraries) {
+            Library existing = ret.put(lib.getName().getPath(), lib);
+            if (existing == null || existing == lib)
+                continue;
+
+            LibraryDownload a = getDownload(existing);
+            LibraryDownload b = getDownload(lib);
+            String was = a == null ? "no download" : a.getSha1() + ' ' + a.getUrl();
+            String now = b == null ? "no download" : b.getSha1() + ' ' + b.getUrl();
+            if (!was.equals(now)) {
+                System.out.println("Warning: Library " + lib.getName().getDescriptor() + " is listed more than once with different downloads:");
+                System.out.println("  Ignored: " + was);
+                System.out.println("  Using:   " + now);
+            }
+        }
+        return new ArrayList<>(ret.values());
+    }
+
+    public String getMinecraft() {
+        return minecraft;
+    }
+
+    public boolean isClient() {
+        return isClient;
+    }
+
+    public String getSide() {
+        return isClient ? "client" : "server";
+    }
+
+    public List<Library> getLibraries() {
+        return libraries;
+    }
+
+    public List<Processor> getProcessors() {
+        return processors;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    // The download info for a library, or null if it doesn't have any, which means it is generated by the processors.
+    public static LibraryDownload getDownload(Library lib) {
+        return lib.getDownloads() == null ? null : lib.getDownloads().getArtifact();
+    }
+}
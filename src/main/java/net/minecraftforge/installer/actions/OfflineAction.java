@@ -5,87 +5,156 @@
 package net.minecraftforge.installer.actions;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.TreeMap;
 
+import net.minecraftforge.installer.CompressionPolicy;
+import net.minecraftforge.installer.DownloadUtils;
+import net.minecraftforge.installer.InstallReport;
+import net.minecraftforge.installer.Resources;
 import net.minecraftforge.installer.SimpleInstaller;
+import net.minecraftforge.installer.VerificationIndex;
+import net.minecraftforge.installer.ZipIndex;
+import net.minecraftforge.installer.ZipWriter;
 import net.minecraftforge.installer.json.Artifact;
 import net.minecraftforge.installer.json.InstallV1;
 import net.minecraftforge.installer.json.Util;
+import net.minecraftforge.installer.json.Version;
 import net.minecraftforge.installer.json.Version.Library;
 import net.minecraftforge.installer.json.Version.LibraryDownload;
 
 public class OfflineAction extends Action {
     public static final String OFFLINE_FLAG = "_FORCE_OFFLINE_INSTALLER_";
+    // Threads used to compress the files added to the offline installer, and how much compressed data, in megabytes, can be held in memory waiting to be written
+    public static int COMPRESSION_THREADS = Integer.getInteger("forge.installer.compressionThreads", Runtime.getRuntime().availableProcessors());
+    public static long COMPRESSION_MEMORY = Long.getLong("forge.installer.compressionMemory", 256);
+    // What the compression policy is given to decide when to store, set by --storeRatio
+    public static double STORE_RATIO = CompressionPolicy.STORE_RATIO;
+    // An offline installer built before, anything in it that hasn't changed is copied over instead of being downloaded and compressed again
+    public static File PREVIOUS = System.getProperty("forge.installer.previousOffline") == null ? null : new File(System.getProperty("forge.installer.previousOffline"));
     private final File base = findInstallerBase();
     private final PostProcessors processorsClient;
     private final PostProcessors processorsServer;
+    // Libraries for both sides, as the offline installer has to be able to install either
+    private final InstallPlan allSides;
     private int added = 0;
+    private int reused = 0;
+    // Libraries that are the same in the previous offline installer, by path
+    private final Map<String, ZipIndex.Entry> carried = new HashMap<>();
 
     protected OfflineAction(InstallV1 profile, ProgressCallback monitor) {
         super(profile, monitor, true);
-        this.processorsClient = new PostProcessors(profile, true, monitor);
-        this.processorsServer = new PostProcessors(profile, false, monitor);
+        InstallPlan server = InstallPlan.of(profile, version, false);
+        this.processorsClient = this.processors;
+        this.processorsServer = new PostProcessors(server, monitor);
+        this.allSides = this.plan.withLibrariesFrom(server);
     }
 
     @Override
     public boolean run(File target, File installer) throws ActionCanceledException {
+        PreviousBundle previous = null;
+        if (PREVIOUS != null) {
+            try {
+                previous = PreviousBundle.open(PREVIOUS);
+                monitor.message("Reusing unchanged files from " + PREVIOUS.getAbsolutePath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                monitor.message("Failed to read previous offline installer " + PREVIOUS.getAbsolutePath() + ", building from scratch: " + e.toString());
+            }
+        }
+
+        try {
+            return run(target, previous);
+        } finally {
+            if (previous != null) {
+                try {
+                    previous.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private boolean run(File target, PreviousBundle previous) throws ActionCanceledException {
         File librariesDir = new File(target, "libraries");
         if (!target.exists())
             target.mkdirs();
         librariesDir.mkdir();
         checkCancel();
 
-        // Download Libraries
-        List<File> libDirs = new ArrayList<>();
-        File mcLibDir = new File(SimpleInstaller.getMCDir(), "libraries");
-        if (mcLibDir.exists())
-            libDirs.add(mcLibDir);
+        Map<String, File> vanilla = getVanillaJars(target);
+        File clientTarget = vanilla.get("client");
+        File serverTarget = vanilla.get("server");
+
+        if (previous != null) {
+            InstallReport.phase("Reusing previous offline installer");
+            try {
+                reuse(previous, librariesDir, vanilla);
+            } catch (IOException e) {
+                e.printStackTrace();
+                error("Failed to read previous offline installer: " + e.getMessage());
+                return false;
+            }
+        }
 
-        if (!downloadLibraries(librariesDir, libDirs))
+        // Download Libraries
+        if (!downloadLibraries(librariesDir, getAdditionalLibDirs()))
             return false;
 
         // Download client jar file
-        File clientTarget = new File(target, "client.jar");
-        File serverTarget = new File(target, "server.jar");
         if (!downloadVanilla(clientTarget, "client") || !downloadVanilla(serverTarget, "server"))
             return false;
 
         // Run processors
+        InstallReport.phase("Processors");
         Set<File> outputs = new HashSet<>();
         if (!process(outputs, this.processorsClient, librariesDir, clientTarget, target, base) ||
             !process(outputs, this.processorsServer, librariesDir, serverTarget, target, base))
             return false;
 
         monitor.message("Building offline installer");
+        InstallReport.phase("Building offline installer");
         monitor.message("Found Base: " + base);
         target = cleanTarget(target);
         monitor.message("Output: " + target);
 
+        // Rebuilding in place, the previous one is still being read from so write next to it and swap them at the end
+        File output = target;
+        if (previous != null && sameFile(target, previous.getFile()))
+            output = new File(target.getAbsolutePath() + ".tmp");
+
         checkCancel();
-        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(target))) {
+        VerificationIndex index = VerificationIndex.forRoot(librariesDir);
+        // Jars make up most of what we add, and they're already compressed, so only deflate what's worth it
+        CompressionPolicy policy = new CompressionPolicy(STORE_RATIO);
+        try (ZipWriter zout = new ZipWriter(output, COMPRESSION_THREADS, COMPRESSION_MEMORY * 1024 * 1024, policy)) {
             Set<String> seen = new HashSet<>();
+            // Hashes of what we add, so the next incremental build doesn't have to work them out
+            Map<String, String> hashes = new TreeMap<>();
 
-            // Copy our input installer jar
+            // Copy our input installer jar, the entries are already compressed so they're copied as is
             monitor.message("Copying Base Installer Archive");
-            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(base))) {
-                for (ZipEntry entry; (entry = zin.getNextEntry()) != null; ) {
-                    zout.putNextEntry(getNewEntry(entry.getName()));
-                    copy(zin, zout);
+            try (ZipIndex zin = ZipIndex.open(base)) {
+                for (ZipIndex.Entry entry : zin.getEntries()) {
+                    if (entry.getName().equals(PreviousBundle.HASHES))
+                        continue;
+                    zout.copy(zin, entry);
                     if (entry.getName().startsWith("maven/") && !entry.isDirectory())
                         seen.add(entry.getName().substring(6));
                 }
@@ -105,6 +174,15 @@ public class OfflineAction extends Action {
                     download.setPath(artifact.getPath());
                 }
 
+                ZipIndex.Entry carry = carried.get(artifact.getPath());
+                if (carry != null) {
+                    monitor.message("Reusing: maven/" + artifact.getPath());
+                    zout.copy(previous.getZip(), carry);
+                    hashes.put(carry.getName(), download.getSha1());
+                    reused++;
+                    continue;
+                }
+
                 if (!local.exists()) {
                     if (download.getUrl() == null || download.getUrl().isEmpty()) {
                         monitor.message("Skipping " + artifact.getDescriptor() + " as it's missing its URL, this is probably generated by the installer");
@@ -116,47 +194,45 @@ public class OfflineAction extends Action {
                     }
                 }
 
-                monitor.message("Adding: maven/" + artifact.getPath());
-                zout.putNextEntry(getNewEntry("maven/" + artifact.getPath()));
-                copy(local, zout);
+                add(zout, previous, "maven/" + artifact.getPath(), local, download.getSha1() != null ? download.getSha1() : index.getSha1(local), hashes);
                 added++;
             }
 
             // Add Vanilla files
-            monitor.message("Adding: cache/vanilla/client.jar");
-            zout.putNextEntry(getNewEntry("cache/vanilla/client.jar"));
-            copy(clientTarget, zout);
-            monitor.message("Adding: cache/vanilla/server.jar");
-            zout.putNextEntry(getNewEntry("cache/vanilla/server.jar"));
-            copy(serverTarget, zout);
+            add(zout, previous, "cache/vanilla/client.jar", clientTarget, DownloadUtils.getSha1(clientTarget), hashes);
+            add(zout, previous, "cache/vanilla/server.jar", serverTarget, DownloadUtils.getSha1(serverTarget), hashes);
 
             // Add Processor outputs, which could be downloaded
             String libPrefix = librariesDir.getAbsolutePath().replace('\\', '/');
             if (!libPrefix.endsWith("/"))
                 libPrefix += '/';
 
-            for (File output : outputs) {
-                String path = output.getAbsolutePath().replace('\\', '/');
+            for (File file : outputs) {
+                String path = file.getAbsolutePath().replace('\\', '/');
                 if (!path.startsWith(libPrefix)) {
                     monitor.message("Skipping " + path);
                     continue;
                 }
 
                 String relative = "cache/" + path.substring(libPrefix.length());
-                if (!output.exists()) {
-                    error("Output Does Not Exist: " + output.getAbsolutePath());
-                    monitor.message("Local Path: " + output.getAbsolutePath());
+                if (!file.exists()) {
+                    error("Output Does Not Exist: " + file.getAbsolutePath());
+                    monitor.message("Local Path: " + file.getAbsolutePath());
                     return false;
                 }
 
-                monitor.message("Adding: " + relative);
-                zout.putNextEntry(getNewEntry(relative));
-                copy(output, zout);
+                add(zout, previous, relative, file, index.getSha1(file), hashes);
             }
 
-            // Add flag that forces the --offline arg to be set
-            zout.putNextEntry(getNewEntry(OFFLINE_FLAG));
+            StringBuilder list = new StringBuilder();
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                if (entry.getValue() != null)
+                    list.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+            }
+            zout.add(PreviousBundle.HASHES, list.toString().getBytes(StandardCharsets.UTF_8));
 
+            // Add flag that forces the --offline arg to be set
+            zout.add(OFFLINE_FLAG, new byte[0]);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -164,26 +240,152 @@ public class OfflineAction extends Action {
             return false;
         }
 
+        monitor.message("Compression:");
+        policy.report(monitor);
+        if (previous != null)
+            monitor.message(String.format("Reused %d unchanged files from %s", reused, previous.getFile()));
+
+        if (output != target) {
+            try {
+                previous.close();
+                Files.move(output.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                e.printStackTrace();
+                error("Failed to replace " + target + " with the new offline installer: " + e.getMessage());
+                return false;
+            }
+        }
+
         return true;
     }
 
-    @Override
-    protected List<Library> getLibraries() {
-        List<Library> tmp = super.getLibraries();
-        tmp.addAll(Arrays.asList(this.processorsClient.getLibraries()));
+    /*
+     * Sets up what the previous offline installer already has, so it isn't downloaded or processed again.
+     * Libraries with a matching SHA-1 are copied into the new installer as is, and only extracted if the processors need them.
+     * Processor outputs are extracted where they go, the processors then check them the same as they would an existing install.
+     */
+    private void reuse(PreviousBundle previous, File librariesDir, Map<String, File> vanilla) throws IOException, ActionCanceledException {
+        VerificationIndex index = VerificationIndex.forRoot(librariesDir);
+        Set<String> needed = new HashSet<>();
+        for (Library lib : profile.getLibraries())
+            needed.add(lib.getName().getPath());
+
+        for (Library lib : getLibraries()) {
+            checkCancel();
+            Artifact artifact = lib.getName();
+            LibraryDownload download = InstallPlan.getDownload(lib);
+            String sha1 = download == null ? null : download.getSha1();
+            ZipIndex.Entry entry = previous.find("maven/" + artifact.getPath(), sha1);
+            if (entry == null)
+                continue;
+
+            File local = artifact.getLocalPath(librariesDir);
+            if (needed.contains(artifact.getPath()) && !sha1.equals(index.getSha1(local))) {
+                monitor.message("Extracting " + artifact.getDescriptor() + " from previous offline installer");
+                if (!sha1.equals(previous.extract(entry, local))) {
+                    local.delete(); // Something went wrong, let it be downloaded instead
+                    continue;
+                }
+                index.record(local, sha1);
+            }
+            carried.put(artifact.getPath(), entry);
+        }
 
-        // Prevent duplicates because why waste time
-        List<Library> ret = new ArrayList<>();
-        Set<String> seen = new HashSet<>();
+        String prefix = librariesDir.getAbsolutePath().replace('\\', '/') + '/';
+        for (PostProcessors procs : getAllProcessors()) {
+            for (File output : procs.getOutputFiles(librariesDir)) {
+                String path = output.getAbsolutePath().replace('\\', '/');
+                if (output.exists() || !path.startsWith(prefix))
+                    continue;
+                ZipIndex.Entry entry = previous.getZip().get("cache/" + path.substring(prefix.length()));
+                if (entry == null)
+                    continue;
+                checkCancel();
+                monitor.message("Extracting " + entry.getName() + " from previous offline installer");
+                index.record(output, previous.extract(entry, output));
+            }
+        }
 
-        for (Library lib : tmp) {
-            if (seen.add(lib.getName().getPath()))
+        // The version string alone isn't enough, Mojang has replaced jars before, so they have to match the manifest as well
+        Version version = null;
+        if (profile.getMinecraft().equals(previous.getMinecraft()) && !vanilla.values().stream().allMatch(File::exists))
+            version = Util.getVanillaVersion(profile.getMinecraft());
+        if (version != null) {
+            for (Map.Entry<String, File> side : vanilla.entrySet()) {
+                Version.Download download = version.getDownload(side.getKey());
+                ZipIndex.Entry entry = download == null ? null : previous.find("cache/vanilla/" + side.getKey() + ".jar", download.getSha1());
+                if (entry == null || side.getValue().exists())
+                    continue;
+                checkCancel();
+                monitor.message("Extracting " + entry.getName() + " from previous offline installer");
+                if (!download.getSha1().equals(previous.extract(entry, side.getValue())))
+                    side.getValue().delete(); // Let it be downloaded instead
+            }
+        }
+
+        index.save();
+        monitor.message(String.format("%d of %d libraries are unchanged", carried.size(), getLibraries().size()));
+    }
+
+    // Copies the entry from the previous offline installer if it's the same, otherwise compresses it again
+    private void add(ZipWriter zout, PreviousBundle previous, String name, File file, String sha1, Map<String, String> hashes) throws IOException {
+        ZipIndex.Entry entry = previous == null ? null : previous.find(name, sha1);
+        if (entry != null) {
+            monitor.message("Reusing: " + name);
+            zout.copy(previous.getZip(), entry);
+            reused++;
+        } else {
+            monitor.message("Adding: " + name);
+            zout.add(name, file);
+        }
+        hashes.put(name, sha1);
+    }
+
+    private static boolean sameFile(File a, File b) {
+        try {
+            return a.getCanonicalFile().equals(b.getCanonicalFile());
+        } catch (IOException e) {
+            return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+        }
+    }
+
+    @Override
+    protected List<Library> getLibrariesToDownload() {
+        // Unchanged libraries are copied from the previous offline installer, and the ones the processors need are already extracted
+        if (carried.isEmpty())
+            return getLibraries();
+        List<Library> ret = new ArrayList<>();
+        for (Library lib : getLibraries()) {
+            if (!carried.containsKey(lib.getName().getPath()))
                 ret.add(lib);
         }
+        return ret;
+    }
+
+    @Override
+    protected List<Library> getLibraries() {
+        return allSides.getLibraries();
+    }
+
+    @Override
+    protected List<File> getAdditionalLibDirs() {
+        File mcLibDir = new File(SimpleInstaller.getMCDir(), "libraries");
+        return mcLibDir.exists() ? Collections.singletonList(mcLibDir) : Collections.emptyList();
+    }
 
+    @Override
+    protected Map<String, File> getVanillaJars(File target) {
+        Map<String, File> ret = new LinkedHashMap<>();
+        ret.put("client", new File(target, "client.jar"));
+        ret.put("server", new File(target, "server.jar"));
         return ret;
     }
 
+    @Override
+    protected List<PostProcessors> getAllProcessors() {
+        return Arrays.asList(processorsClient, processorsServer);
+    }
+
     private boolean process(Set<File> output, PostProcessors procs, File librariesDir, File serverTarget, File target, File installer) {
         Set<File> out = procs.process(librariesDir, serverTarget, target, installer);
         if (out == null)
@@ -210,12 +412,14 @@ public class OfflineAction extends Action {
 
     @Override
     public String getSuccessMessage() {
+        if (reused > 0)
+            return String.format("Successfully created offline installer, downloaded %d libraries, reused %d files", added, reused);
         return String.format("Successfully created offline installer, downloaded %d libraries", added);
     }
 
     public static File findInstallerBase() {
         try {
-            URI uri = Util.class.getResource("/install_profile.json").toURI();
+            URI uri = Resources.find("/install_profile.json").toURI();
             if (!"jar".equals(uri.getScheme()))
                 throw new IllegalStateException("Could not find installer jar, if you're in a development environment, stick a pre-built installer jar in the gradle root directory and re-import your project");
 
@@ -233,24 +437,4 @@ public class OfflineAction extends Action {
 
         return new File(target, base.getName().substring(0, base.getName().length() - 4) + "-offline.jar");
     }
-
-    private ZipEntry getNewEntry(String name) {
-        ZipEntry ret = new ZipEntry(name);
-        //ret.setTime(628041600000L);
-        return ret;
-    }
-
-    private static void copy(InputStream source, OutputStream target) throws IOException {
-        byte[] buf = new byte[256];
-        int length;
-        while ((length = source.read(buf)) != -1) {
-            target.write(buf, 0, length);
-        }
-    }
-
-    private static void copy(File source, OutputStream target) throws IOException {
-        try (InputStream stream = new FileInputStream(source)) {
-            copy(stream, target);
-        }
-    }
 }
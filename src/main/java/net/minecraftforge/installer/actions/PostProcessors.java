@@ -4,9 +4,13 @@
  */
 package net.minecraftforge.installer.actions;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
@@ -14,67 +18,212 @@ import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.net.ssl.SSLException;
 import javax.swing.JOptionPane;
 
+import net.minecraftforge.installer.ArtifactCache;
 import net.minecraftforge.installer.DownloadUtils;
+import net.minecraftforge.installer.HashFunction;
+import net.minecraftforge.installer.InstallReport;
+import net.minecraftforge.installer.Resources;
 import net.minecraftforge.installer.SimpleInstaller;
 import net.minecraftforge.installer.actions.ProgressCallback.MessagePriority;
 import net.minecraftforge.installer.json.Artifact;
 import net.minecraftforge.installer.json.Install.Processor;
-import net.minecraftforge.installer.json.InstallV1;
 import net.minecraftforge.installer.SwingUtil;
-import net.minecraftforge.installer.json.Version.Library;
+import net.minecraftforge.installer.VerificationIndex;
 import net.minecraftforge.installer.json.Util;
 
 public class PostProcessors {
-    private final InstallV1 profile;
+    // How many processors can run at the same time. The order between them only comes from their args and declared outputs,
+    // so a processor that writes something it doesn't declare, or a tool with shared static state, could race. Opt-in until
+    // profiles are known to declare everything.
+    public static int PROCESSOR_THREADS = Integer.getInteger("forge.installer.processorThreads", 1);
+    // Run processors in separate JVMs, so they get their own heap and can't take down the installer. See WorkerPool
+    public static boolean FORK = Boolean.getBoolean("forge.installer.fork");
+    // Max heap for the forked JVMs, in the same format as -Xmx, or null to use the JVM default
+    public static String FORK_MAX_HEAP = System.getProperty("forge.installer.forkXmx");
+    public static List<String> FORK_JVM_ARGS = splitArgs(System.getProperty("forge.installer.forkJvmArgs"));
+    // Start processors while libraries are still downloading, see Action.downloadLibrariesAndProcess
+    public static boolean PIPELINE = Boolean.getBoolean("forge.installer.pipeline");
+
+    /*
+     * Lets processors wait for the libraries they need, when they are started before all the libraries have downloaded.
+     * Paths are absolute, using / as the separator.
+     */
+    public interface LibraryGate {
+        // True if the file isn't being downloaded, or has finished downloading, successfully or not.
+        boolean isReady(String path);
+        // Waits for the file to finish downloading. Returns false if it failed, libraries without a url never fail, something else makes them.
+        boolean await(String path) throws InterruptedException;
+    }
+
+    private final InstallPlan plan;
     private final boolean isClient;
     private final ProgressCallback monitor;
     private final boolean hasTasks;
     private final List<Processor> processors;
 
-    public PostProcessors(InstallV1 profile, boolean isClient, ProgressCallback monitor) {
-        this.profile = profile;
-        this.isClient = isClient;
+    public PostProcessors(InstallPlan plan, ProgressCallback monitor) {
+        this.plan = plan;
+        this.isClient = plan.isClient();
         this.monitor = monitor;
-        this.processors = profile.getProcessors(isClient ? "client" : "server");
+        this.processors = plan.getProcessors();
         this.hasTasks = !this.processors.isEmpty();
     }
 
-    public Library[] getLibraries() {
-        return hasTasks ? profile.getLibraries() : new Library[0];
+    public static List<String> splitArgs(String value) {
+        List<String> ret = new ArrayList<>();
+        if (value != null) {
+            for (String arg : value.trim().split("\\s+")) {
+                if (!arg.isEmpty())
+                    ret.add(arg);
+            }
+        }
+        return ret;
     }
 
     public int getTaskCount() {
         return hasTasks ? 0 :
-            profile.getLibraries().length +
+            plan.getLibraries().size() +
             processors.size() +
-            profile.getData(isClient).size();
+            plan.getData().size();
+    }
+
+    /*
+     * Best guess at the files the processors will output, without extracting any data files.
+     * Only outputs that point at an artifact, directly or through a data entry, can be resolved this early, which covers everything in practice.
+     */
+    public List<File> getOutputFiles(File librariesDir) {
+        Map<String, String> cfg = plan.getData();
+        List<File> ret = new ArrayList<>();
+        for (Processor proc : processors) {
+            for (String key : proc.getOutputs().keySet()) {
+                if (key.length() > 2 && key.charAt(0) == '{' && key.charAt(key.length() - 1) == '}')
+                    key = cfg.get(key.substring(1, key.length() - 1));
+                if (key != null && key.length() > 2 && key.charAt(0) == '[' && key.charAt(key.length() - 1) == ']')
+                    ret.add(Artifact.from(key.substring(1, key.length() - 1)).getLocalPath(librariesDir));
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Every library the processors use, in the order they will first need them.
+     */
+    public List<String> getLibraryOrder(File librariesDir) {
+        Map<String, String> cfg = plan.getData();
+        Set<String> ret = new LinkedHashSet<>();
+        for (Processor proc : processors) {
+            ret.add(path(proc.getJar().getLocalPath(librariesDir)));
+            for (Artifact dep : proc.getClasspath())
+                ret.add(path(dep.getLocalPath(librariesDir)));
+            for (String arg : proc.getArgs()) {
+                if (arg.length() > 2 && arg.charAt(0) == '{' && arg.charAt(arg.length() - 1) == '}')
+                    arg = cfg.get(arg.substring(1, arg.length() - 1));
+                if (arg != null && arg.length() > 2 && arg.charAt(0) == '[' && arg.charAt(arg.length() - 1) == ']')
+                    ret.add(path(Artifact.from(arg.substring(1, arg.length() - 1)).getLocalPath(librariesDir)));
+            }
+        }
+        return new ArrayList<>(ret);
+    }
+
+    /*
+     * Logs whether each processor would run, for --dryRun, without writing or extracting anything.
+     * Outputs are checked the same way as a real run. If an output can only be found by extracting a data file we can't tell, so it's assumed to run.
+     * Returns how many processors would run.
+     */
+    public int dryRun(File librariesDir, ProgressCallback monitor) {
+        Map<String, String> cfg = plan.getData();
+        VerificationIndex index = VerificationIndex.forRoot(librariesDir);
+        int ret = 0;
+        for (int x = 0; x < processors.size(); x++) {
+            Processor proc = processors.get(x);
+            String status = null;
+            if (proc.getOutputs().isEmpty())
+                status = "runs, no outputs to check";
+            for (Map.Entry<String, String> e : proc.getOutputs().entrySet()) {
+                if (status != null)
+                    break;
+                String file = planValue(cfg, librariesDir, e.getKey());
+                String sha1 = e.getValue() == null ? null : planValue(cfg, librariesDir, e.getValue());
+                if (file == null || sha1 == null)
+                    status = "runs, outputs depend on data files";
+                else if (!sha1.equals(index.getSha1(new File(file))))
+                    status = "runs, " + file + " is missing or out of date";
+            }
+            if (status != null)
+                ret++;
+            if (status != null && ArtifactCache.get() != null)
+                status += ", unless it's in the cache";
+            monitor.message("  Processor " + (x + 1) + " " + proc.getJar() + ": " + (status == null ? "skipped, outputs are up to date" : status));
+        }
+        return ret;
+    }
+
+    // Resolves an output key or value without extracting any data files, or returns null if it can't be
+    private static String planValue(Map<String, String> cfg, File librariesDir, String value) {
+        if (value.length() > 2 && value.charAt(0) == '{' && value.charAt(value.length() - 1) == '}') {
+            value = cfg.get(value.substring(1, value.length() - 1));
+            if (value == null || value.length() < 2)
+                return null;
+            if (value.charAt(0) == '\'' && value.charAt(value.length() - 1) == '\'')
+                return value.substring(1, value.length() - 1);
+            if (value.charAt(0) != '[' || value.charAt(value.length() - 1) != ']')
+                return null; // Data file
+        }
+        if (value.length() > 2 && value.charAt(0) == '[' && value.charAt(value.length() - 1) == ']')
+            return Artifact.from(value.substring(1, value.length() - 1)).getLocalPath(librariesDir).getAbsolutePath();
+        try {
+            return Util.replaceTokens(Collections.emptyMap(), value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     public Set<File> process(File librariesDir, File minecraft, File root, File installer) {
+        return process(librariesDir, minecraft, root, installer, null);
+    }
+
+    /*
+     * If gate isn't null, libraries may still be downloading, so each processor waits for the libraries it uses before running.
+     */
+    public Set<File> process(File librariesDir, File minecraft, File root, File installer, LibraryGate gate) {
+        VerificationIndex index = VerificationIndex.forRoot(librariesDir);
+        ClassLoaders loaders = new ClassLoaders();
+        WorkerPool workers = FORK ? new WorkerPool() : null;
+        Path[] temp = { null };
         try {
-            Map<String, DataEntry> data = loadData(librariesDir);
+            Map<String, DataEntry> data = loadData(librariesDir, temp);
             if (data == null)
                 return null;
 
             data.put("SIDE",              new DataEntry(isClient ? "client" : "server"));
             data.put("MINECRAFT_JAR",     new FileEntry(minecraft));
-            data.put("MINECRAFT_VERSION", new DataEntry(profile.getMinecraft()));
+            data.put("MINECRAFT_VERSION", new DataEntry(plan.getMinecraft()));
             data.put("ROOT",              new FileEntry(root));
             data.put("INSTALLER",         new FileEntry(installer));
             data.put("LIBRARY_DIR",       new FileEntry(librariesDir));
@@ -88,180 +237,559 @@ public class PostProcessors {
             if (allOutputs == null)
                 return null;
 
-            String libPrefix = librariesDir.getAbsolutePath().replace('\\', '/');
-            if (!libPrefix.endsWith("/"))
-                libPrefix += '/';
+            List<Step> steps = buildSteps(librariesDir, data, allOutputs);
+            Context ctx = new Context(librariesDir, data, index, loaders, workers, gate);
+            int threads = Math.max(1, Math.min(PROCESSOR_THREADS, steps.size()));
+
+            boolean success;
+            // While pipelining the downloads are logging at the same time, so always use the parallel path, which logs each processor in one block.
+            if (threads == 1 && gate == null) {
+                success = true;
+                for (int x = 0; x < steps.size() && success; x++) {
+                    monitor.progress((double)(x + 1) / steps.size());
+                    success = run(steps.get(x), ctx, monitor);
+                }
+            } else {
+                success = runParallel(steps, threads, ctx);
+            }
+
+            if (!success)
+                return null;
 
             Set<File> ret = new HashSet<>();
-            for (int x = 0; x < processors.size(); x++) {
-                monitor.progress((double)(x + 1) / processors.size());
-                log("===============================================================================");
-                Processor proc = processors.get(x);
-                List<Output> outputs = allOutputs.get(x);
-
-                if (!outputs.isEmpty()) {
-                    boolean miss = false;
-                    log("  Cache: ");
-                    for (Output output : outputs) {
-                        if (!output.file.exists()) {
-                            log("    " + output.file + " Missing");
-
-                            String path = output.file.getAbsolutePath().replace('\\', '/');
-                            if (!path.startsWith(libPrefix)) {
-                                miss = true;
-                            } else {
-                                String relative = "/cache/" + path.substring(libPrefix.length());
-                                try (final InputStream input = DownloadUtils.class.getResourceAsStream(relative)) {
-                                    if (input != null) {
-                                        log("    Extracting output from " + relative);
-                                        if (!output.file.getParentFile().exists())
-                                             output.file.getParentFile().mkdirs();
-
-                                        Files.copy(input, output.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                                        String sha1 = DownloadUtils.getSha1(output.file);
-                                        if (output.sha1.equals(sha1)) {
-                                            log("      Extraction completed: Checksum validated.");
-                                            ret.add(output.file);
-                                        } else {
-                                            log("    " + output.file);
-                                            log("      Expected: " + output.sha1);
-                                            log("      Actual:   " + sha1);
-                                            miss = true;
-                                            output.file.delete();
-                                        }
-                                    } else {
-                                        miss = true;
-                                    }
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                    return null;
-                                }
-                            }
-                        } else {
-                            String sha = DownloadUtils.getSha1(output.file);
-                            if (sha.equals(output.sha1)) {
-                                log("    " + output.file + " Validated: " + output.sha1);
-                                ret.add(output.file);
-                            } else {
-                                log("    " + output.file);
-                                log("      Expected: " + output.sha1);
-                                log("      Actual:   " + sha);
-                                miss = true;
-                                output.file.delete();
-                            }
-                        }
-                    }
+            for (Step step : steps)
+                ret.addAll(step.files);
+            return ret;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            loaders.close();
+            if (workers != null)
+                workers.close();
+            if (temp[0] != null && !SimpleInstaller.debug)
+                deleteTemp(temp[0]);
+            index.save();
+        }
+    }
+
+    /*
+     * Works out which processors have to wait for which, based on the files they use.
+     * A processor reads its jar, classpath, and every file referenced by its arguments, either as a [artifact] or a {DATA} entry that is a file.
+     * It writes its declared outputs, or if it doesn't declare any, we have to assume it writes to any of the files in its arguments.
+     * A processor waits for an earlier one if either writes something the other reads or writes. Directories count as containing everything under them.
+     * Anything we can't figure out waits for everything before it, and everything after waits for it.
+     */
+    private List<Step> buildSteps(File librariesDir, Map<String, DataEntry> data, List<List<Output>> allOutputs) {
+        Map<String, Supplier<String>> recording = new HashMap<>();
+        Set<DataEntry> used = new HashSet<>();
+        for (Map.Entry<String, DataEntry> e : data.entrySet()) {
+            DataEntry entry = e.getValue();
+            recording.put(e.getKey(), () -> {
+                used.add(entry);
+                return entry.toString(); // Not get, so data files aren't extracted just to look at their names
+            });
+        }
 
-                    if (!miss) {
-                        log("  Cache Hit!");
-                        continue;
+        List<Step> steps = new ArrayList<>();
+        for (int x = 0; x < processors.size(); x++) {
+            Processor proc = processors.get(x);
+            Step step = new Step(x, proc, allOutputs.get(x));
+            steps.add(step);
+
+            try {
+                for (String arg : proc.getArgs()) {
+                    if (arg.charAt(0) == '[' && arg.charAt(arg.length() - 1) == ']') {
+                        step.reads.add(path(Artifact.from(arg.substring(1, arg.length() - 1)).getLocalPath(librariesDir)));
+                    } else {
+                        used.clear();
+                        Util.replaceTokens(recording, arg);
+                        for (DataEntry entry : used) {
+                            if (entry.getFile() != null)
+                                step.reads.add(path(entry.getFile()));
+                        }
                     }
                 }
+            } catch (RuntimeException e) {
+                // Bad arguments, it will fail properly when it runs. Until then don't let it run beside anything.
+                step.barrier = true;
+            }
 
-                File jar = proc.getJar().getLocalPath(librariesDir);
-                if (!jar.exists() || !jar.isFile()) {
-                    error("  Missing Jar for processor: " + jar.getAbsolutePath());
-                    return null;
-                }
+            if (step.outputs.isEmpty()) {
+                step.writes.addAll(step.reads);
+            } else {
+                for (Output output : step.outputs)
+                    step.writes.add(path(output.file));
+            }
 
-                // Locate main class in jar file
-                JarFile jarFile = new JarFile(jar);
-                String mainClass = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
-                jarFile.close();
+            step.reads.add(path(proc.getJar().getLocalPath(librariesDir)));
+            for (Artifact dep : proc.getClasspath())
+                step.reads.add(path(dep.getLocalPath(librariesDir)));
 
-                if (mainClass == null || mainClass.isEmpty()) {
-                    error("  Jar does not have main class: " + jar.getAbsolutePath());
-                    return null;
-                }
-                monitor.message("  MainClass: " + mainClass, MessagePriority.LOW);
-
-                List<URL> classpath = new ArrayList<>();
-                StringBuilder err = new StringBuilder();
-                monitor.message("  Classpath:", MessagePriority.LOW);
-                monitor.message("    " + jar.getAbsolutePath(), MessagePriority.LOW);
-                classpath.add(jar.toURI().toURL());
-                for (Artifact dep : proc.getClasspath()) {
-                    File lib = dep.getLocalPath(librariesDir);
-                    if (!lib.exists() || !lib.isFile())
-                        err.append("\n  ").append(dep.getDescriptor());
-                    classpath.add(lib.toURI().toURL());
-                    monitor.message("    " + lib.getAbsolutePath(), MessagePriority.LOW);
+            for (Step prev : steps) {
+                if (prev != step && (step.barrier || prev.barrier || overlaps(prev.writes, step.reads) || overlaps(prev.reads, step.writes) || overlaps(prev.writes, step.writes))) {
+                    prev.dependents.add(step);
+                    step.waiting++;
                 }
-                if (err.length() > 0) {
-                    error("  Missing Processor Dependencies: " + err.toString());
-                    return null;
+            }
+        }
+        return steps;
+    }
+
+    static String path(File file) {
+        return file.getAbsolutePath().replace('\\', '/');
+    }
+
+    private static boolean overlaps(Set<String> first, Set<String> second) {
+        for (String a : first) {
+            for (String b : second) {
+                if (a.equals(b) || a.startsWith(b + '/') || b.startsWith(a + '/'))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Runs every processor as soon as the ones it depends on have finished, with up to the specified number running at once.
+     * Each processor's log, including anything it prints, is collected and written out in one block when it finishes.
+     * If one fails nothing new is started, but anything already running is allowed to finish.
+     */
+    private boolean runParallel(List<Step> steps, int threads, Context ctx) {
+        monitor.message("Running processors on " + threads + " threads");
+        for (Step step : steps) {
+            if (step.waiting > 0) {
+                StringBuilder buf = new StringBuilder();
+                for (Step prev : steps) {
+                    if (prev.dependents.contains(step))
+                        buf.append(buf.length() == 0 ? "" : ", ").append(prev.index + 1);
                 }
+                monitor.message("  Processor " + (step.index + 1) + " waits for " + buf, MessagePriority.LOW);
+            }
+        }
 
-                List<String> args = new ArrayList<>();
-                for (String arg : proc.getArgs()) {
-                    char start = arg.charAt(0);
-                    char end = arg.charAt(arg.length() - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Processor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Step> completion = new ExecutorCompletionService<>(executor);
 
-                    if (start == '[' && end == ']') //Library
-                        args.add(Artifact.from(arg.substring(1, arg.length() - 1)).getLocalPath(librariesDir).getAbsolutePath());
-                    else
-                        args.add(Util.replaceTokens(data, arg));
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream(new CapturedOutput(out), true));
+        System.setErr(new PrintStream(new CapturedOutput(err), true));
+        try {
+            boolean failed = false;
+            int running = 0;
+            int finished = 0;
+            for (Step step : steps) {
+                if (step.waiting == 0) {
+                    submit(completion, step, ctx);
+                    running++;
                 }
-                if (err.length() > 0) {
-                    error("  Missing Processor data values: " + err.toString());
-                    return null;
+            }
+
+            while (running > 0) {
+                Step step = completion.take().get();
+                running--;
+                monitor.progress((double)(++finished) / steps.size());
+                step.log.flush(monitor);
+
+                if (!step.success) {
+                    failed = true;
+                    continue;
                 }
-                monitor.message("  Args: " + args.stream().map(a -> a.indexOf(' ') != -1 || a.indexOf(',') != -1 ? '"' + a + '"' : a).collect(Collectors.joining(", ")), MessagePriority.LOW);
 
-                ClassLoader cl = new URLClassLoader(classpath.toArray(new URL[classpath.size()]), getParentClassloader());
-                // Set the thread context classloader to be our newly constructed one so that service loaders work
-                Thread currentThread = Thread.currentThread();
-                ClassLoader threadClassloader = currentThread.getContextClassLoader();
-                currentThread.setContextClassLoader(cl);
-                try {
-                    Class<?> cls = Class.forName(mainClass, true, cl);
-                    Method main = cls.getDeclaredMethod("main", String[].class);
-                    main.invoke(null, (Object)args.toArray(new String[args.size()]));
-                } catch (InvocationTargetException ite) {
-                    Throwable e = ite.getCause();
-                    handleError(e);
-                    return null;
-                } catch (Throwable e) {
-                    handleError(e);
-                    return null;
-                } finally {
-                    // Set back to the previous classloader
-                    currentThread.setContextClassLoader(threadClassloader);
+                for (Step next : step.dependents) {
+                    if (--next.waiting == 0 && !failed) {
+                        submit(completion, next, ctx);
+                        running++;
+                    }
                 }
+            }
+            return !failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // run catches everything itself, so this should never happen
+            e.printStackTrace();
+            return false;
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+            executor.shutdownNow();
+        }
+    }
 
-                if (!outputs.isEmpty()) {
-                    for (Output output : outputs) {
-                        ret.add(output.file);
-                        if (!output.file.exists()) {
-                            err.append("\n    ").append(output.file).append(" missing");
-                        } else {
-                            String sha = DownloadUtils.getSha1(output.file);
-                            if (sha.equals(output.sha1)) {
-                                log("  Output: " + output.file + " Checksum Validated: " + sha);
+    private void submit(CompletionService<Step> completion, Step step, Context ctx) {
+        completion.submit(() -> {
+            CapturedOutput.TARGET.set(step.log);
+            try {
+                step.success = run(step, ctx, step.log);
+            } catch (Throwable e) {
+                e.printStackTrace();
+                step.success = false;
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                CapturedOutput.TARGET.remove();
+            }
+            return step;
+        });
+    }
+
+    // Runs the step, recording how long it took and what it did in the install report
+    private boolean run(Step step, Context ctx, ProgressCallback log) throws IOException {
+        step.report = InstallReport.processor(step.index, step.proc.getJar().getDescriptor());
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = runStep(step, ctx, log);
+            return success;
+        } finally {
+            step.report.setWallNanos(System.nanoTime() - start);
+            if (!success)
+                step.report.setStatus("failed");
+            for (String path : step.reads) {
+                File file = new File(path);
+                if (file.isFile())
+                    step.report.addInputBytes(file.length());
+            }
+            for (Output output : step.outputs)
+                step.report.addOutputBytes(output.file.length());
+        }
+    }
+
+    private boolean runStep(Step step, Context ctx, ProgressCallback log) throws IOException {
+        File librariesDir = ctx.librariesDir;
+        VerificationIndex index = ctx.index;
+        String libPrefix = librariesDir.getAbsolutePath().replace('\\', '/');
+        if (!libPrefix.endsWith("/"))
+            libPrefix += '/';
+
+        log(log, "===============================================================================");
+        Processor proc = step.proc;
+        List<Output> outputs = step.outputs;
+        Set<File> ret = step.files;
+
+        if (!outputs.isEmpty()) {
+            boolean miss = false;
+            log(log, "  Cache: ");
+            for (Output output : outputs) {
+                if (!output.file.exists()) {
+                    log(log, "    " + output.file + " Missing");
+
+                    String path = output.file.getAbsolutePath().replace('\\', '/');
+                    if (!path.startsWith(libPrefix)) {
+                        miss = true;
+                    } else {
+                        String relative = "/cache/" + path.substring(libPrefix.length());
+                        try (final InputStream input = Resources.open(relative)) {
+                            if (input != null) {
+                                log(log, "    Extracting output from " + relative);
+                                if (!output.file.getParentFile().exists())
+                                     output.file.getParentFile().mkdirs();
+
+                                String sha1 = HashFunction.SHA1.copy(input, output.file);
+                                if (output.sha1.equals(sha1)) {
+                                    log(log, "      Extraction completed: Checksum validated.");
+                                    index.record(output.file, sha1);
+                                    ret.add(output.file);
+                                } else {
+                                    log(log, "    " + output.file);
+                                    log(log, "      Expected: " + output.sha1);
+                                    log(log, "      Actual:   " + sha1);
+                                    miss = true;
+                                    output.file.delete();
+                                }
                             } else {
-                                err.append("\n    ").append(output.file)
-                                   .append("\n      Expected: ").append(output.sha1)
-                                   .append("\n      Actual:   ").append(sha);
-                                if (!SimpleInstaller.debug && !output.file.delete())
-                                    err.append("\n      Could not delete file");
+                                miss = true;
                             }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            return false;
                         }
                     }
-                    if (err.length() > 0) {
-                        error("  Processor failed, invalid outputs:" + err.toString());
-                        return null;
+                } else {
+                    String sha = index.getSha1(output.file);
+                    if (output.sha1.equals(sha)) {
+                        log(log, "    " + output.file + " Validated: " + output.sha1);
+                        ret.add(output.file);
+                    } else {
+                        log(log, "    " + output.file);
+                        log(log, "      Expected: " + output.sha1);
+                        log(log, "      Actual:   " + sha);
+                        miss = true;
+                        output.file.setWritable(true); // Could be read only if it was linked from the cache
+                        output.file.delete();
                     }
                 }
             }
 
-            return ret;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            if (!miss) {
+                log(log, "  Cache Hit!");
+                step.report.setStatus("hit");
+                return true;
+            }
+        }
+
+        if (ctx.gate != null && !awaitLibraries(step, ctx.gate, log))
+            return false;
+
+        File jar = proc.getJar().getLocalPath(librariesDir);
+        if (!jar.exists() || !jar.isFile()) {
+            error(log, "  Missing Jar for processor: " + jar.getAbsolutePath());
+            return false;
+        }
+
+        // Locate main class in jar file
+        String mainClass = ctx.loaders.getMainClass(jar);
+
+        if (mainClass == null || mainClass.isEmpty()) {
+            error(log, "  Jar does not have main class: " + jar.getAbsolutePath());
+            return false;
+        }
+        log.message("  MainClass: " + mainClass, MessagePriority.LOW);
+        step.report.setMainClass(mainClass);
+
+        List<URL> classpath = new ArrayList<>();
+        List<File> classpathFiles = new ArrayList<>();
+        StringBuilder err = new StringBuilder();
+        log.message("  Classpath:", MessagePriority.LOW);
+        log.message("    " + jar.getAbsolutePath(), MessagePriority.LOW);
+        classpath.add(jar.toURI().toURL());
+        classpathFiles.add(jar);
+        for (Artifact dep : proc.getClasspath()) {
+            File lib = dep.getLocalPath(librariesDir);
+            if (!lib.exists() || !lib.isFile())
+                err.append("\n  ").append(dep.getDescriptor());
+            classpath.add(lib.toURI().toURL());
+            classpathFiles.add(lib);
+            log.message("    " + lib.getAbsolutePath(), MessagePriority.LOW);
+        }
+        if (err.length() > 0) {
+            error(log, "  Missing Processor Dependencies: " + err.toString());
+            return false;
+        }
+
+        // Done before the args are resolved, the key hashes data files straight from the installer so a hit never extracts them
+        ArtifactCache cache = outputs.isEmpty() ? null : ArtifactCache.get();
+        String cacheKey = cache == null ? null : getCacheKey(step, ctx, classpathFiles, mainClass, libPrefix);
+        if (cacheKey != null && restoreOutputs(cache, cacheKey, step, ctx, log)) {
+            step.report.setStatus("restored");
+            return true;
         }
+
+        List<String> args = new ArrayList<>();
+        for (String arg : proc.getArgs()) {
+            char start = arg.charAt(0);
+            char end = arg.charAt(arg.length() - 1);
+
+            if (start == '[' && end == ']') //Library
+                args.add(Artifact.from(arg.substring(1, arg.length() - 1)).getLocalPath(librariesDir).getAbsolutePath());
+            else {
+                try {
+                    args.add(Util.replaceTokens(ctx.data, arg));
+                } catch (IllegalStateException e) { // Data file failed to extract
+                    error(log, "  " + e.getMessage());
+                    return false;
+                }
+            }
+        }
+        if (err.length() > 0) {
+            error(log, "  Missing Processor data values: " + err.toString());
+            return false;
+        }
+        log.message("  Args: " + args.stream().map(a -> a.indexOf(' ') != -1 || a.indexOf(',') != -1 ? '"' + a + '"' : a).collect(Collectors.joining(", ")), MessagePriority.LOW);
+
+        if (ctx.workers != null) {
+            String failure = ctx.workers.run(classpathFiles, mainClass, args, log, step.report);
+            if (failure != null) {
+                error(log, "Failed to run processor: " + failure + "\nSee log for more details");
+                return false;
+            }
+        } else {
+            URLClassLoader cl = ctx.loaders.acquire(classpath);
+            // Set the thread context classloader to be our newly constructed one so that service loaders work
+            Thread currentThread = Thread.currentThread();
+            ClassLoader threadClassloader = currentThread.getContextClassLoader();
+            currentThread.setContextClassLoader(cl);
+            long cpu = InstallReport.getThreadCpuTime();
+            long allocated = InstallReport.getThreadAllocatedBytes();
+            try {
+                Class<?> cls = Class.forName(mainClass, true, cl);
+                Method main = cls.getDeclaredMethod("main", String[].class);
+                main.invoke(null, (Object)args.toArray(new String[args.size()]));
+            } catch (InvocationTargetException ite) {
+                Throwable e = ite.getCause();
+                handleError(log, e);
+                return false;
+            } catch (Throwable e) {
+                handleError(log, e);
+                return false;
+            } finally {
+                // Set back to the previous classloader
+                currentThread.setContextClassLoader(threadClassloader);
+                ctx.loaders.release(classpath, cl);
+                step.report.setCpuNanos(cpu == -1 ? -1 : InstallReport.getThreadCpuTime() - cpu);
+                step.report.setAllocatedBytes(allocated == -1 ? -1 : InstallReport.getThreadAllocatedBytes() - allocated);
+            }
+        }
+        step.report.setStatus("ran");
+
+        if (!outputs.isEmpty()) {
+            for (Output output : outputs) {
+                ret.add(output.file);
+                if (!output.file.exists()) {
+                    err.append("\n    ").append(output.file).append(" missing");
+                } else {
+                    String sha = index.getSha1(output.file);
+                    if (output.sha1.equals(sha)) {
+                        log(log, "  Output: " + output.file + " Checksum Validated: " + sha);
+                    } else {
+                        err.append("\n    ").append(output.file)
+                           .append("\n      Expected: ").append(output.sha1)
+                           .append("\n      Actual:   ").append(sha);
+                        if (!SimpleInstaller.debug && !output.file.delete())
+                            err.append("\n      Could not delete file");
+                    }
+                }
+            }
+            if (err.length() > 0) {
+                error(log, "  Processor failed, invalid outputs:" + err.toString());
+                return false;
+            }
+
+            if (cacheKey != null) {
+                List<File> files = new ArrayList<>();
+                List<String> hashes = new ArrayList<>();
+                for (Output output : outputs) {
+                    files.add(output.file);
+                    hashes.add(output.sha1);
+                }
+                cache.putProcessorOutputs(cacheKey, files, hashes);
+            }
+        }
+        return true;
     }
 
-    private void handleError(Throwable e) {
+    /*
+     * Waits for the jar, classpath and inputs the processor reads. Its own outputs are skipped, they can also be libraries,
+     * like the patched jar listed in the version json, but it's this processor's job to make them, not the download's.
+     */
+    private boolean awaitLibraries(Step step, LibraryGate gate, ProgressCallback log) {
+        Set<String> outputs = new HashSet<>();
+        for (Output output : step.outputs)
+            outputs.add(path(output.file));
+
+        StringBuilder err = new StringBuilder();
+        try {
+            for (String path : step.reads) {
+                if (outputs.contains(path))
+                    continue;
+                if (!gate.isReady(path))
+                    log(log, "  Waiting for " + path);
+                if (!gate.await(path))
+                    err.append("\n    ").append(path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log(log, "  Interrupted while waiting for libraries");
+            return false;
+        }
+        if (err.length() > 0) {
+            error(log, "  Libraries needed by processor failed to download:" + err.toString());
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Key for the shared processor cache, a hash of everything that can change what the processor outputs:
+     * The jar and classpath, the main class, the expected outputs, and the arguments with every input file replaced by the hash of its contents.
+     * Outputs are replaced by their index in the outputs list, so that the same processor gets the same key no matter where it's being installed.
+     *
+     * Returns null if the processor can't be cached, because one of its arguments is a directory, or a file that doesn't exist and isn't an output.
+     * We can't know what it would read from those.
+     */
+    private String getCacheKey(Step step, Context ctx, List<File> classpath, String mainClass, String libPrefix) throws IOException {
+        Map<String, Integer> outputs = new HashMap<>();
+        for (int x = 0; x < step.outputs.size(); x++)
+            outputs.put(step.outputs.get(x).file.getAbsolutePath(), x);
+
+        boolean[] cacheable = { true };
+        Function<File, String> describe = file -> {
+            Integer idx = outputs.get(file.getAbsolutePath());
+            if (idx != null)
+                return "<output " + idx + '>';
+            String sha1 = file.isFile() ? hashInput(file, ctx.index, libPrefix) : null;
+            if (sha1 == null) {
+                cacheable[0] = false;
+                return "";
+            }
+            return "<file " + sha1 + '>';
+        };
+
+        Map<String, Supplier<String>> tokens = new HashMap<>();
+        for (Map.Entry<String, DataEntry> e : ctx.data.entrySet()) {
+            DataEntry entry = e.getValue();
+            if (entry instanceof ExtractedEntry)
+                tokens.put(e.getKey(), () -> "<file " + ((ExtractedEntry)entry).getSha1() + '>');
+            else
+                tokens.put(e.getKey(), entry.getFile() == null ? entry : () -> describe.apply(entry.getFile()));
+        }
+
+        try {
+            StringBuilder buf = new StringBuilder();
+            for (File lib : classpath)
+                buf.append("classpath ").append(hashInput(lib, ctx.index, libPrefix)).append('\n');
+            buf.append("main ").append(mainClass).append('\n');
+            for (String arg : step.proc.getArgs()) {
+                if (arg.charAt(0) == '[' && arg.charAt(arg.length() - 1) == ']')
+                    buf.append("arg ").append(describe.apply(Artifact.from(arg.substring(1, arg.length() - 1)).getLocalPath(ctx.librariesDir))).append('\n');
+                else
+                    buf.append("arg ").append(Util.replaceTokens(tokens, arg)).append('\n');
+            }
+            for (Output output : step.outputs)
+                buf.append("output ").append(output.sha1).append('\n');
+
+            return cacheable[0] ? HashFunction.SHA1.hash(buf.toString()) : null;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Files in the libraries folder go through the index, anything else, like data files in the temp folder, isn't worth remembering.
+    private static String hashInput(File file, VerificationIndex index, String libPrefix) {
+        return file.getAbsolutePath().replace('\\', '/').startsWith(libPrefix) ? index.getSha1(file) : DownloadUtils.getSha1(file);
+    }
+
+    private boolean restoreOutputs(ArtifactCache cache, String key, Step step, Context ctx, ProgressCallback log) {
+        List<String> hashes = cache.getProcessorOutputs(key);
+        if (hashes == null || hashes.size() != step.outputs.size())
+            return false;
+
+        for (int x = 0; x < hashes.size(); x++) {
+            if (!step.outputs.get(x).sha1.equals(hashes.get(x)) || !cache.contains(hashes.get(x)))
+                return false;
+        }
+
+        log(log, "  Restoring outputs from processor cache: " + key);
+        for (Output output : step.outputs) {
+            if (!cache.materialize(output.sha1, output.file)) {
+                log(log, "    Failed to restore " + output.file + ", running processor");
+                return false;
+            }
+            ctx.index.record(output.file, output.sha1); // Checked against the object as it was restored
+            step.files.add(output.file);
+            log(log, "    " + output.file + " Restored: " + output.sha1);
+        }
+        return true;
+    }
+
+    private void handleError(ProgressCallback log, Throwable e) {
         e.printStackTrace();
         StringBuilder buf = new StringBuilder();
         buf.append("Failed to run processor: ").append(e.getClass().getName());
@@ -272,29 +800,36 @@ public class PostProcessors {
                 .append("\nTry updating your java before trying again.");
         }
         buf.append("\nSee log for more details");
-        error(buf.toString());
+        error(log, buf.toString());
         if (e.getMessage() == null)
-            error("Failed to run processor: " + e.getClass().getName() + "\nSee log for more details.");
+            error(log, "Failed to run processor: " + e.getClass().getName() + "\nSee log for more details.");
         else
-            error("Failed to run processor: " + e.getClass().getName() + ":" + e.getMessage() + "\nSee log for more details.");
+            error(log, "Failed to run processor: " + e.getClass().getName() + ":" + e.getMessage() + "\nSee log for more details.");
 
     }
 
     private void error(String message) {
+        error(monitor, message);
+    }
+
+    private void error(ProgressCallback log, String message) {
         if (!SimpleInstaller.headless)
             JOptionPane.showOptionDialog(null, message, "Error", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE, null, new Object[]{"Ok", SwingUtil.createLogButton()}, "");
         for (String line : message.split("\n"))
-            monitor.message(line);
+            log.message(line);
     }
 
     private void log(String message) {
+        log(monitor, message);
+    }
+
+    private static void log(ProgressCallback log, String message) {
         for (String line : message.split("\n"))
-            monitor.message(line);
+            log.message(line);
     }
 
     private static boolean clChecked = false;
     private static ClassLoader parentClassLoader = null;
-    @SuppressWarnings("unused")
     private synchronized ClassLoader getParentClassloader() { //Reflectively try and get the platform classloader, done this way to prevent hard dep on J9.
         if (!clChecked) {
             clChecked = true;
@@ -310,21 +845,19 @@ public class PostProcessors {
         return parentClassLoader;
     }
 
-    private Map<String, DataEntry> loadData(File librariesDir) throws IOException {
-        Map<String, String> cfg = profile.getData(isClient);
+    /*
+     * Data files are only extracted from the installer when a processor that actually runs asks for them, see ExtractedEntry.
+     * So if every processor is a cache hit, nothing is extracted at all. We still check that they all exist up front, so a broken installer fails early.
+     */
+    private Map<String, DataEntry> loadData(File librariesDir, Path[] temp) throws IOException {
+        Map<String, String> cfg = plan.getData();
         if (cfg.isEmpty())
             return new HashMap<>();
 
         Map<String, DataEntry> ret = new HashMap<>();
 
         StringBuilder err = new StringBuilder();
-        Path temp  = Files.createTempDirectory("forge_installer");
-        monitor.start("Created Temporary Directory: " + temp);
-
-        double steps = cfg.size();
-        int progress = 1;
         for (String key : cfg.keySet()) {
-            monitor.progress(progress++ / steps);
             String value = cfg.get(key);
 
             DataEntry entry = null;
@@ -334,12 +867,15 @@ public class PostProcessors {
             } else if (value.charAt(0) == '\'' && value.charAt(value.length() - 1) == '\'') { //Literal
                 entry = new DataEntry(value.substring(1, value.length() - 1));
             } else {
-                File target = Paths.get(temp.toString(), value).toFile();
-                monitor.message("  Extracting: " + value);
-                if (!DownloadUtils.extractFile(value, target))
+                if (temp[0] == null) {
+                    temp[0] = Files.createTempDirectory("forge_installer");
+                    monitor.message("Created Temporary Directory: " + temp[0]);
+                }
+                String path = value.charAt(0) == '/' ? value : '/' + value;
+                if (!Resources.exists(path))
                     err.append("\n  ").append(value);
 
-                entry = new FileEntry(target);
+                entry = new ExtractedEntry(value, Paths.get(temp[0].toString(), value).toFile());
             }
             ret.put(key, entry);
         }
@@ -352,6 +888,14 @@ public class PostProcessors {
         return ret;
     }
 
+    private static void deleteTemp(Path temp) {
+        try (Stream<Path> walk = Files.walk(temp)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Failed to delete temporary directory " + temp + ": " + e.toString());
+        }
+    }
+
     private List<List<Output>> buildOutputs(File librariesDir, Map<String, DataEntry> data, List<Processor> processors) {
         List<List<Output>> ret = new ArrayList<>();
         for (Processor proc : processors) {
@@ -367,14 +911,19 @@ public class PostProcessors {
                 char end = key.charAt(key.length() - 1);
 
                 String file = null;
-                if (start == '[' && end == ']')
-                    file = Artifact.from(key.substring(1, key.length() - 1)).getLocalPath(librariesDir).getAbsolutePath();
-                else
-                    file = Util.replaceTokens(data, key);
-
                 String value = outputs.get(key);
-                if (value != null)
-                    value = Util.replaceTokens(data, value);
+                try {
+                    if (start == '[' && end == ']')
+                        file = Artifact.from(key.substring(1, key.length() - 1)).getLocalPath(librariesDir).getAbsolutePath();
+                    else
+                        file = Util.replaceTokens(data, key);
+
+                    if (value != null)
+                        value = Util.replaceTokens(data, value);
+                } catch (IllegalArgumentException | IllegalStateException e) { // Unknown token, or a data file failed to extract
+                    error("  Invalid configuration, bad output config: [" + key + ": " + value + "] " + e.getMessage());
+                    return null;
+                }
 
                 if (key == null || value == null) {
                     error("  Invalid configuration, bad output config: [" + key + ": " + value + "]");
@@ -403,26 +952,222 @@ public class PostProcessors {
         public String get() {
             return toString();
         }
+
+        // The file this entry points to, or null if it's just a value
+        protected File getFile() {
+            return null;
+        }
     }
 
     private static class FileEntry extends DataEntry {
-        @SuppressWarnings("unused")
         private final File file;
         protected FileEntry(File file) {
             super(file.getAbsolutePath());
             this.file = file;
         }
+
+        @Override
+        protected File getFile() {
+            return file;
+        }
     }
 
-    private static class ArtifactEntry extends DataEntry {
+    /*
+     * A file from the installer jar, extracted to the temp folder the first time something asks for its value.
+     * toString gives the path without extracting it, for things that only need to know where it will be.
+     */
+    private static class ExtractedEntry extends FileEntry {
+        private final String name;
+        private boolean extracted = false;
+        private String sha1 = null;
+
+        protected ExtractedEntry(String name, File file) {
+            super(file);
+            this.name = name;
+        }
+
+        @Override
+        public synchronized String get() {
+            if (!extracted) {
+                System.out.println("  Extracting: " + name);
+                if (!DownloadUtils.extractFile(name, getFile()))
+                    throw new IllegalStateException("Failed to extract file from archive: " + name);
+                extracted = true;
+            }
+            return super.get();
+        }
+
+        // Hash of the contents, read straight from the installer so we don't need to extract it just for the processor cache
+        protected synchronized String getSha1() {
+            if (sha1 == null) {
+                String path = name.charAt(0) == '/' ? name : '/' + name;
+                try (InputStream stream = Resources.open(path)) {
+                    sha1 = HashFunction.SHA1.hash(stream);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return sha1;
+        }
+    }
+
+    private static class ArtifactEntry extends FileEntry {
         @SuppressWarnings("unused")
         private final Artifact artifact;
         protected ArtifactEntry(Artifact artifact, File root) {
-            super(artifact.getLocalPath(root).getAbsolutePath());
+            super(artifact.getLocalPath(root));
             this.artifact = artifact;
         }
     }
 
+    private static class Context {
+        private final File librariesDir;
+        private final Map<String, DataEntry> data;
+        private final VerificationIndex index;
+        private final ClassLoaders loaders;
+        private final WorkerPool workers;
+        private final LibraryGate gate;
+
+        private Context(File librariesDir, Map<String, DataEntry> data, VerificationIndex index, ClassLoaders loaders, WorkerPool workers, LibraryGate gate) {
+            this.librariesDir = librariesDir;
+            this.data = data;
+            this.index = index;
+            this.loaders = loaders;
+            this.workers = workers;
+            this.gate = gate;
+        }
+    }
+
+    /*
+     * Forge runs the same few tool jars many times, so instead of a new class loader every time, processors with the same jar and classpath share one.
+     * Saves opening every jar and loading and JITing the same classes again for each processor.
+     * A loader is only ever used by one processor at a time, as tools are free to keep state in static fields. If it's busy another is made.
+     * Everything is closed at the end of process, so we don't keep file handles to the jars open for the life of the installer.
+     */
+    private class ClassLoaders {
+        private final Map<File, String> mainClasses = new HashMap<>();
+        private final Map<String, Deque<URLClassLoader>> idle = new HashMap<>();
+        private final List<URLClassLoader> all = new ArrayList<>();
+
+        private synchronized String getMainClass(File jar) throws IOException {
+            String ret = mainClasses.get(jar);
+            if (ret == null && !mainClasses.containsKey(jar)) {
+                try (JarFile jarFile = new JarFile(jar)) {
+                    ret = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+                }
+                mainClasses.put(jar, ret);
+            }
+            return ret;
+        }
+
+        private synchronized URLClassLoader acquire(List<URL> classpath) {
+            Deque<URLClassLoader> loaders = idle.get(classpath.toString());
+            if (loaders != null && !loaders.isEmpty())
+                return loaders.pop();
+
+            URLClassLoader ret = new URLClassLoader(classpath.toArray(new URL[classpath.size()]), getParentClassloader());
+            all.add(ret);
+            return ret;
+        }
+
+        private synchronized void release(List<URL> classpath, URLClassLoader loader) {
+            idle.computeIfAbsent(classpath.toString(), k -> new ArrayDeque<>()).push(loader);
+        }
+
+        private synchronized void close() {
+            for (URLClassLoader loader : all) {
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            all.clear();
+            idle.clear();
+            mainClasses.clear();
+        }
+    }
+
+    private static class Step {
+        private final int index;
+        private final Processor proc;
+        private final List<Output> outputs;
+        private final Set<String> reads = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+        private final List<Step> dependents = new ArrayList<>();
+        private final BufferedCallback log = new BufferedCallback();
+        private final Set<File> files = new HashSet<>();
+        private boolean barrier = false;
+        private InstallReport.Processor report;
+        private int waiting = 0;
+        private volatile boolean success = false;
+
+        private Step(int index, Processor proc, List<Output> outputs) {
+            this.index = index;
+            this.proc = proc;
+            this.outputs = outputs;
+        }
+    }
+
+    /*
+     * Stand in for System.out and System.err while processors run in parallel.
+     * Anything printed from a processor thread goes to that processor's log, everything else goes to the original stream.
+     */
+    private static class CapturedOutput extends OutputStream {
+        private static final ThreadLocal<ProgressCallback> TARGET = new ThreadLocal<>();
+        private static final ThreadLocal<ByteArrayOutputStream> LINE = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+        private final OutputStream parent;
+
+        private CapturedOutput(OutputStream parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ProgressCallback target = TARGET.get();
+            if (target == null) {
+                parent.write(b);
+                return;
+            }
+
+            ByteArrayOutputStream line = LINE.get();
+            if (b == '\n') {
+                String message = new String(line.toByteArray());
+                line.reset();
+                if (message.endsWith("\r"))
+                    message = message.substring(0, message.length() - 1);
+                target.message(message);
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (TARGET.get() == null) {
+                parent.write(buf, off, len);
+                return;
+            }
+            for (int x = off; x < off + len; x++)
+                write(buf[x]);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ProgressCallback target = TARGET.get();
+            if (target == null) {
+                parent.flush();
+                return;
+            }
+
+            ByteArrayOutputStream line = LINE.get();
+            if (line.size() > 0) {
+                target.message(new String(line.toByteArray()));
+                line.reset();
+            }
+        }
+    }
+
     private static class Output {
         private final File file;
         private final String sha1;
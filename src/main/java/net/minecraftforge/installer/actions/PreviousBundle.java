@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import net.minecraftforge.installer.HashFunction;
+import net.minecraftforge.installer.ZipIndex;
+import net.minecraftforge.installer.json.Util;
+
+/*
+ * An offline installer built before, that a new one can reuse entries from instead of downloading, processing and compressing them again.
+ * Entries are matched by path and SHA-1. Offline installers list the SHA-1 of their maven/ and cache/ entries in HASHES,
+ * anything not in there, or everything for ones built before that, is hashed by inflating it the first time it's asked for.
+ */
+class PreviousBundle implements Closeable {
+    static final String HASHES = "offline.sha1";
+
+    private final ZipIndex zip;
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private final String minecraft;
+
+    private PreviousBundle(ZipIndex zip) throws IOException {
+        this.zip = zip;
+
+        ZipIndex.Entry list = zip.get(HASHES);
+        if (list != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.open(list), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int idx = line.indexOf(' ');
+                    if (idx != -1)
+                        hashes.put(line.substring(idx + 1), line.substring(0, idx));
+                }
+            }
+        }
+
+        String minecraft = null;
+        ZipIndex.Entry profile = zip.get("install_profile.json");
+        if (profile != null) {
+            try (InputStream stream = zip.open(profile)) {
+                JsonElement value = Util.GSON.fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), JsonObject.class).get("minecraft");
+                minecraft = value == null ? null : value.getAsString();
+            }
+        }
+        this.minecraft = minecraft;
+    }
+
+    public static PreviousBundle open(File file) throws IOException {
+        ZipIndex zip = ZipIndex.open(file);
+        try {
+            return new PreviousBundle(zip);
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return zip.getFile();
+    }
+
+    public ZipIndex getZip() {
+        return zip;
+    }
+
+    // The Minecraft version it was built for, so we know if its vanilla jars can be used
+    public String getMinecraft() {
+        return minecraft;
+    }
+
+    /*
+     * Returns the entry if it's there and its SHA-1 matches, null otherwise or if there's nothing to match against.
+     */
+    public ZipIndex.Entry find(String name, String sha1) throws IOException {
+        if (sha1 == null)
+            return null;
+        ZipIndex.Entry entry = zip.get(name);
+        if (entry == null || entry.isDirectory())
+            return null;
+        return sha1.equals(getSha1(entry)) ? entry : null;
+    }
+
+    public String getSha1(ZipIndex.Entry entry) throws IOException {
+        String ret = hashes.get(entry.getName());
+        if (ret == null) {
+            try (InputStream stream = zip.open(entry)) {
+                ret = HashFunction.SHA1.hash(stream);
+            }
+            hashes.put(entry.getName(), ret);
+        }
+        return ret;
+    }
+
+    /*
+     * Extracts the entry to the target, returning the SHA-1 of what was written.
+     */
+    public String extract(ZipIndex.Entry entry, File target) throws IOException {
+        if (!target.getParentFile().exists())
+            target.getParentFile().mkdirs();
+        try (InputStream stream = zip.open(entry)) {
+            return HashFunction.SHA1.copy(stream, target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
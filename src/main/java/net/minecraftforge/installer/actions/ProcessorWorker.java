@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraftforge.installer.InstallReport;
+
+/*
+ * Entry point for the child JVMs used to run processors when the installer is started with --fork.
+ * Reads requests from stdin, runs them one at a time, and streams their output and result back over stdout.
+ *
+ * One message per line, values are escaped so they can't contain new lines:
+ *   Request:  'cp <file>' for each classpath entry, 'main <class>', 'arg <value>' for each argument, then 'run'
+ *   Response: 'out <line>' or 'err <line>' for anything the processor prints, then 'stats <cpu nanos> <allocated bytes>', then 'done 0' or 'done 1 <error>'
+ * The worker exits when stdin is closed.
+ */
+public class ProcessorWorker {
+    public static void main(String[] args) throws IOException {
+        PrintStream protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        System.setOut(new PrintStream(new LineOutput(protocol, "out "), true));
+        System.setErr(new PrintStream(new LineOutput(protocol, "err "), true));
+
+        Map<String, URLClassLoader> loaders = new HashMap<>();
+        List<URL> classpath = new ArrayList<>();
+        List<String> arguments = new ArrayList<>();
+        String mainClass = null;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int idx = line.indexOf(' ');
+            String command = idx == -1 ? line : line.substring(0, idx);
+            String value = idx == -1 ? "" : unescape(line.substring(idx + 1));
+
+            switch (command) {
+                case "cp":   classpath.add(new File(value).toURI().toURL()); break;
+                case "main": mainClass = value; break;
+                case "arg":  arguments.add(value); break;
+                case "run":
+                    long cpu = InstallReport.getThreadCpuTime();
+                    long allocated = InstallReport.getThreadAllocatedBytes();
+                    String error = run(loaders, classpath, mainClass, arguments);
+                    System.out.flush();
+                    System.err.flush();
+                    protocol.println("stats " + (cpu == -1 ? -1 : InstallReport.getThreadCpuTime() - cpu) + ' ' + (allocated == -1 ? -1 : InstallReport.getThreadAllocatedBytes() - allocated));
+                    protocol.println(error == null ? "done 0" : "done 1 " + escape(error));
+                    classpath = new ArrayList<>();
+                    arguments = new ArrayList<>();
+                    mainClass = null;
+                    break;
+                default:
+                    protocol.println("err " + escape("Unknown command: " + line));
+            }
+        }
+    }
+
+    // Returns null on success, or a description of the error
+    private static String run(Map<String, URLClassLoader> loaders, List<URL> classpath, String mainClass, List<String> args) {
+        URLClassLoader cl = loaders.computeIfAbsent(classpath.toString(), k -> new URLClassLoader(classpath.toArray(new URL[classpath.size()]), getParentClassloader()));
+        // Set the thread context classloader so that service loaders work, same as in process
+        Thread currentThread = Thread.currentThread();
+        ClassLoader threadClassloader = currentThread.getContextClassLoader();
+        currentThread.setContextClassLoader(cl);
+        try {
+            Class<?> cls = Class.forName(mainClass, true, cl);
+            Method main = cls.getDeclaredMethod("main", String[].class);
+            main.invoke(null, (Object)args.toArray(new String[args.size()]));
+            return null;
+        } catch (InvocationTargetException ite) {
+            return describe(ite.getCause());
+        } catch (Throwable e) {
+            return describe(e);
+        } finally {
+            currentThread.setContextClassLoader(threadClassloader);
+        }
+    }
+
+    private static String describe(Throwable e) {
+        e.printStackTrace();
+        return e.getClass().getName() + (e.getMessage() == null ? "" : ":" + e.getMessage());
+    }
+
+    private static ClassLoader getParentClassloader() {
+        if (System.getProperty("java.version").startsWith("1."))
+            return null;
+        try {
+            return (ClassLoader)ClassLoader.class.getDeclaredMethod("getPlatformClassLoader").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') == -1)
+            return value;
+
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '\\' && x + 1 < value.length()) {
+                char n = value.charAt(++x);
+                buf.append(n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    // Turns everything printed into protocol lines with the specified prefix
+    private static class LineOutput extends OutputStream {
+        private final PrintStream protocol;
+        private final String prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private LineOutput(PrintStream protocol, String prefix) {
+            this.protocol = protocol;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n')
+                flush();
+            else
+                line.write(b);
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (line.size() == 0)
+                return;
+            String message = new String(line.toByteArray());
+            line.reset();
+            if (message.endsWith("\r"))
+                message = message.substring(0, message.length() - 1);
+            protocol.println(prefix + escape(message));
+        }
+    }
+}
@@ -6,6 +6,7 @@ package net.minecraftforge.installer.actions;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,34 +52,37 @@ public class ServerInstall extends Action {
 
         //Download MC Server jar
         monitor.stage("Considering minecraft server jar");
-        Map<String, Supplier<String>> tokens = new HashMap<>();
-        tokens.put("ROOT", target::getAbsolutePath);
-        tokens.put("MINECRAFT_VERSION", profile::getMinecraft);
-        tokens.put("LIBRARY_DIR", librariesDir::getAbsolutePath);
-
-        String path = Util.replaceTokens(tokens, profile.getServerJarPath());
-        File serverTarget = new File(path);
+        File serverTarget = getVanillaJars(target).get("server");
         if (!downloadVanilla(serverTarget, "server"))
             return false;
 
         checkCancel();
 
         // Download Libraries
-        List<File> libDirs = new ArrayList<>();
-        File mcLibDir = new File(SimpleInstaller.getMCDir(), "libraries");
-        if (mcLibDir.exists())
-            libDirs.add(mcLibDir);
-
-        if (!downloadLibraries(librariesDir, libDirs))
-            return false;
-
-        checkCancel();
-        if (processors.process(librariesDir, serverTarget, target, installer) == null)
+        if (!downloadLibrariesAndProcess(librariesDir, getAdditionalLibDirs(), serverTarget, target, installer))
             return false;
 
         return true;
     }
 
+    @Override
+    protected List<File> getAdditionalLibDirs() {
+        File mcLibDir = new File(SimpleInstaller.getMCDir(), "libraries");
+        return mcLibDir.exists() ? Collections.singletonList(mcLibDir) : Collections.emptyList();
+    }
+
+    @Override
+    protected Map<String, File> getVanillaJars(File target) {
+        File librariesDir = new File(target, "libraries");
+        Map<String, Supplier<String>> tokens = new HashMap<>();
+        tokens.put("ROOT", target::getAbsolutePath);
+        tokens.put("MINECRAFT_VERSION", profile::getMinecraft);
+        tokens.put("LIBRARY_DIR", librariesDir::getAbsolutePath);
+
+        String path = Util.replaceTokens(tokens, profile.getServerJarPath());
+        return Collections.singletonMap("server", new File(path));
+    }
+
     @Override
     public boolean isPathValid(File targetDir) {
         return targetDir.exists() && targetDir.isDirectory() && targetDir.list().length == 0;
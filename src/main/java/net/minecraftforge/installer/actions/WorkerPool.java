@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.actions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.minecraftforge.installer.InstallReport;
+
+/*
+ * Child JVMs that processors are run in when forking is enabled, see ProcessorWorker for the other side.
+ * Workers are started when needed and reused for later processors, so there is one per processor running at the same time.
+ * A worker that dies, typically because the processor called System.exit, is thrown away and a new one started next time.
+ */
+class WorkerPool {
+    private final Deque<Worker> idle = new ArrayDeque<>();
+    private final List<Worker> all = new ArrayList<>();
+
+    /*
+     * Runs the main class in a worker, sending everything it prints to the log, and the CPU time and memory it used to the report.
+     * Returns null if it was successful, or a description of why it failed.
+     */
+    String run(List<File> classpath, String mainClass, List<String> args, ProgressCallback log, InstallReport.Processor report) {
+        Worker worker;
+        try {
+            worker = acquire();
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            return "Could not start worker: " + e.toString();
+        }
+
+        boolean reusable = false;
+        try {
+            for (File file : classpath)
+                worker.send("cp", file.getAbsolutePath());
+            worker.send("main", mainClass);
+            for (String arg : args)
+                worker.send("arg", arg);
+            worker.input.write("run\n");
+            worker.input.flush();
+
+            String line;
+            while ((line = worker.output.readLine()) != null) {
+                if (line.startsWith("out ") || line.startsWith("err ")) {
+                    log.message(ProcessorWorker.unescape(line.substring(4)));
+                } else if (line.startsWith("stats ")) {
+                    String[] pts = line.split(" ");
+                    report.setCpuNanos(Long.parseLong(pts[1]));
+                    report.setAllocatedBytes(Long.parseLong(pts[2]));
+                } else if (line.startsWith("done ")) {
+                    reusable = true;
+                    return line.equals("done 0") ? null : ProcessorWorker.unescape(line.substring(7));
+                } else {
+                    log.message(line); // Something from the JVM itself, like an OutOfMemoryError
+                }
+            }
+
+            // Worker went away before finishing, most likely the processor called System.exit, which is fine as long as it was a clean exit.
+            int code = worker.process.waitFor();
+            return code == 0 ? null : "Worker exited with code " + code;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "Lost connection to worker: " + e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        } finally {
+            release(worker, reusable);
+        }
+    }
+
+    private synchronized Worker acquire() throws IOException, URISyntaxException {
+        if (!idle.isEmpty())
+            return idle.pop();
+
+        File self = new File(ProcessorWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        if (PostProcessors.FORK_MAX_HEAP != null)
+            cmd.add("-Xmx" + PostProcessors.FORK_MAX_HEAP);
+        cmd.addAll(PostProcessors.FORK_JVM_ARGS);
+        cmd.add("-cp");
+        cmd.add(self.getAbsolutePath());
+        cmd.add(ProcessorWorker.class.getName());
+
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        Worker worker = new Worker(process);
+        all.add(worker);
+        return worker;
+    }
+
+    private synchronized void release(Worker worker, boolean reusable) {
+        if (reusable) {
+            idle.push(worker);
+        } else {
+            worker.process.destroyForcibly();
+            all.remove(worker);
+        }
+    }
+
+    /*
+     * Asks every worker to exit by closing its input, and kills any that don't.
+     */
+    synchronized void close() {
+        for (Worker worker : all) {
+            try {
+                worker.input.close();
+            } catch (IOException e) {
+                // Already dead
+            }
+        }
+        for (Worker worker : all) {
+            try {
+                if (!worker.process.waitFor(5, TimeUnit.SECONDS))
+                    worker.process.destroyForcibly();
+            } catch (InterruptedException e) {
+                worker.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    private static class Worker {
+        private final Process process;
+        private final Writer input;
+        private final BufferedReader output;
+
+        private Worker(Process process) {
+            this.process = process;
+            this.input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        private void send(String command, String value) throws IOException {
+            input.write(command + ' ' + ProcessorWorker.escape(value) + '\n');
+        }
+    }
+}
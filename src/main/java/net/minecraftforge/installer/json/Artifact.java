@@ -6,6 +6,8 @@ package net.minecraftforge.installer.json;
 
 import java.io.File;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -29,37 +31,77 @@ public class Artifact {
     private String file;
     private String descriptor;
 
+    // Local path for the last root we were asked about, almost everything uses the same libraries folder.
+    private volatile LocalPath local;
+
+    // Every artifact we have parsed. Artifacts can't be changed, so the same descriptor can share one instance.
+    // Descriptors come from the install profile and version jsons, so there is a limited number of them and they can be kept forever.
+    private static final Map<String, Artifact> CACHE = new ConcurrentHashMap<>();
+
     public static Artifact from(String descriptor)
+    {
+        Artifact ret = CACHE.get(descriptor);
+        if (ret == null)
+            ret = CACHE.computeIfAbsent(descriptor, Artifact::parse);
+        return ret;
+    }
+
+    private static Artifact parse(String descriptor)
     {
         Artifact ret = new Artifact();
         ret.descriptor = descriptor;
 
-        String[] pts = descriptor.split(":");
-        ret.domain = pts[0];
-        ret.name = pts[1];
+        // String.split used to drop empty parts from the end, so trailing ':'s are ignored
+        int length = descriptor.length();
+        while (length > 0 && descriptor.charAt(length - 1) == ':')
+            length--;
+        String value = length == descriptor.length() ? descriptor : descriptor.substring(0, length);
 
-        int last = pts.length - 1;
-        int idx = pts[last].indexOf('@');
-        if (idx != -1) {
-            ret.ext = pts[last].substring(idx + 1);
-            pts[last] = pts[last].substring(0, idx);
+        // The extension is only allowed on the last part
+        int end = value.length();
+        int at = value.indexOf('@', value.lastIndexOf(':') + 1);
+        if (at != -1) {
+            ret.ext = value.substring(at + 1);
+            end = at;
         }
 
-        ret.version = pts[2];
-        if (pts.length > 3)
-            ret.classifier = pts[3];
+        int nameStart = value.indexOf(':') + 1;
+        int versionStart = nameStart == 0 ? 0 : value.indexOf(':', nameStart) + 1;
+        if (versionStart == 0)
+            throw new IllegalArgumentException("Invalid artifact descriptor, expected group:name:version[:classifier][@extension]: " + descriptor);
+        int classifierStart = value.indexOf(':', versionStart) + 1;
 
-        ret.file = ret.name + '-' + ret.version;
-        if (ret.classifier != null) ret.file += '-' + ret.classifier;
-        ret.file += '.' + ret.ext;
+        ret.domain = value.substring(0, nameStart - 1);
+        ret.name = value.substring(nameStart, versionStart - 1);
+        if (classifierStart == 0) {
+            ret.version = value.substring(versionStart, end);
+        } else {
+            ret.version = value.substring(versionStart, classifierStart - 1);
+            int classifierEnd = value.indexOf(':', classifierStart); // Anything after the classifier is ignored
+            ret.classifier = value.substring(classifierStart, classifierEnd == -1 ? end : classifierEnd);
+        }
 
-        ret.path = ret.domain.replace('.', '/') + '/' + ret.name + '/' + ret.version + '/' + ret.file;
+        StringBuilder buf = new StringBuilder(descriptor.length() * 2);
+        buf.append(ret.name).append('-').append(ret.version);
+        if (ret.classifier != null)
+            buf.append('-').append(ret.classifier);
+        buf.append('.').append(ret.ext);
+        ret.file = buf.toString();
+
+        buf.setLength(0);
+        buf.append(ret.domain.replace('.', '/')).append('/').append(ret.name).append('/').append(ret.version).append('/').append(ret.file);
+        ret.path = buf.toString();
 
         return ret;
     }
 
     public File getLocalPath(File base) {
-        return new File(base, path.replace('/', File.separatorChar));
+        LocalPath local = this.local;
+        if (local == null || (local.base != base && !local.base.equals(base))) {
+            local = new LocalPath(base, new File(base, path.replace('/', File.separatorChar)));
+            this.local = local;
+        }
+        return local.file;
     }
 
     public String getDescriptor(){ return descriptor; }
@@ -86,4 +128,14 @@ public class Artifact {
             return json.isJsonPrimitive() ? Artifact.from(json.getAsJsonPrimitive().getAsString()) : null;
         }
     }
+
+    private static class LocalPath {
+        private final File base;
+        private final File file;
+
+        private LocalPath(File base, File file) {
+            this.base = base;
+            this.file = file;
+        }
+    }
 }
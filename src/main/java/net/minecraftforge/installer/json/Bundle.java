@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.json;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * bundle.json, in the root of an installer that holds more than one install profile.
+ * Each profile maps the resource paths it would have in a normal installer, like /install_profile.json or /maven/..., to where they are in the bundle.
+ * Libraries and other large files are stored once under pool/ named by their SHA-1, and shared by every profile that uses them.
+ */
+public class Bundle {
+    private int spec = 1;
+    private String defaultProfile;
+    private Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+
+    public int getSpec() {
+        return spec;
+    }
+
+    public String getDefaultProfile() {
+        return defaultProfile != null ? defaultProfile : profiles.isEmpty() ? null : profiles.keySet().iterator().next();
+    }
+
+    public void setDefaultProfile(String value) {
+        this.defaultProfile = value;
+    }
+
+    public List<String> getProfiles() {
+        return new ArrayList<>(profiles.keySet());
+    }
+
+    public Map<String, String> getFiles(String profile) {
+        return profiles.get(profile);
+    }
+
+    public void addProfile(String name, Map<String, String> files) {
+        profiles.put(name, files);
+    }
+}
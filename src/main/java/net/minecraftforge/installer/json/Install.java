@@ -9,10 +9,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.stream.Collectors;
 
 import net.minecraftforge.installer.DownloadUtils;
+import net.minecraftforge.installer.MirrorSelector;
 import net.minecraftforge.installer.SimpleInstaller;
 
 public class Install extends Spec {
@@ -46,7 +46,7 @@ public class Install extends Spec {
     protected Map<String, DataFile> data;
 
     // non-serialized values
-    private Mirror mirror;
+    private List<Mirror> mirrors;
     private boolean triedMirrors = false;
 
     public String getProfile() {
@@ -90,20 +90,31 @@ public class Install extends Spec {
     }
 
     public Mirror getMirror() {
-        if (mirror != null)
-            return mirror;
+        List<Mirror> mirrors = getMirrors();
+        return mirrors.isEmpty() ? null : mirrors.get(0);
+    }
+
+    /*
+     * All known mirrors, fastest first. The ranking is done once, and reused for the rest of the install.
+     */
+    public synchronized List<Mirror> getMirrors() {
+        if (mirrors != null)
+            return mirrors;
         if (SimpleInstaller.mirror != null) {
-            mirror = new Mirror("Mirror", "", "", SimpleInstaller.mirror.toString());
-            return mirror;
+            mirrors = Collections.singletonList(new Mirror("Mirror", "", "", SimpleInstaller.mirror.toString()));
+            return mirrors;
         }
         if (getMirrorList() == null)
-            return null;
+            return Collections.emptyList();
         if (!triedMirrors) {
             triedMirrors = true;
             Mirror[] list = DownloadUtils.downloadMirrors(getMirrorList());
-            mirror = list == null || list.length == 0 ? null : list[new Random().nextInt(list.length)];
+            if (list == null || list.length == 0)
+                return Collections.emptyList();
+            mirrors = Collections.unmodifiableList(MirrorSelector.rank(getMirrorList(), list));
+            return mirrors;
         }
-        return mirror;
+        return Collections.emptyList();
     }
 
     public boolean hideClient() {
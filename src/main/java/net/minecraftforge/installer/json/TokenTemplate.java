@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+ * A pattern for Util.replaceTokens that has been parsed once into plain text and token lookups, so it can be
+ * evaluated again and again without rescanning the string. Processors resolve the same args every time they're
+ * checked, hashed for the cache and run, so this adds up for large processor lists.
+ *
+ * Pattern syntax:
+ *   {KEY}     replaced with the value of the token
+ *   'text'    text inside is used as is, so '{KEY}' is just {KEY}
+ *   \c        the next character is used as is, inside or outside of the above
+ *
+ * Errors are the same as parsing the string every time would give, and in the same order. Nothing is thrown when
+ * compiling, a bad pattern ends with a segment that throws when it's reached, so missing tokens before it are still
+ * reported first, and the suppliers before it are still called.
+ */
+public class TokenTemplate {
+    // Patterns come from the install profile, so there is a limited number of them and they can be kept forever.
+    private static final Map<String, TokenTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final String pattern;
+    // Plain text and token names, isKey says which is which
+    private final String[] segments;
+    private final boolean[] isKey;
+    // Thrown once all the segments before it are evaluated, null if the pattern is valid
+    private final String error;
+    // The result if there are no tokens, so there's nothing to build
+    private final String constant;
+    private final int length;
+
+    public static TokenTemplate compile(String pattern) {
+        TokenTemplate ret = CACHE.get(pattern);
+        if (ret == null)
+            ret = CACHE.computeIfAbsent(pattern, TokenTemplate::new);
+        return ret;
+    }
+
+    private TokenTemplate(String value) {
+        this.pattern = value;
+
+        List<String> segments = new ArrayList<>();
+        List<Boolean> isKey = new ArrayList<>();
+        StringBuilder buf = new StringBuilder();
+        String error = null;
+
+        parse:
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '\\') {
+                if (x == value.length() - 1) {
+                    error = "Illegal pattern (Bad escape): " + value;
+                    break;
+                }
+                buf.append(value.charAt(++x));
+            } else if (c == '{' || c == '\'') {
+                StringBuilder key = c == '\'' ? buf : new StringBuilder();
+                for (int y = x + 1; y <= value.length(); y++) {
+                    if (y == value.length()) {
+                        error = "Illegal pattern (Unclosed " + c + "): " + value;
+                        break parse;
+                    }
+                    char d = value.charAt(y);
+                    if (d == '\\') {
+                        if (y == value.length() - 1) {
+                            error = "Illegal pattern (Bad escape): " + value;
+                            break parse;
+                        }
+                        key.append(value.charAt(++y));
+                    } else if (c == '{' && d == '}') {
+                        x = y;
+                        break;
+                    } else if (c == '\'' && d == '\'') {
+                        x = y;
+                        break;
+                    } else
+                        key.append(d);
+                }
+                if (c == '{') {
+                    if (buf.length() > 0) {
+                        segments.add(buf.toString());
+                        isKey.add(false);
+                        buf.setLength(0);
+                    }
+                    segments.add(key.toString());
+                    isKey.add(true);
+                }
+            } else {
+                buf.append(c);
+            }
+        }
+
+        // Text before an error is never returned, but tokens before it still need to be looked up so keep them
+        if (buf.length() > 0 && error == null) {
+            segments.add(buf.toString());
+            isKey.add(false);
+        }
+
+        this.segments = segments.toArray(new String[segments.size()]);
+        this.isKey = new boolean[this.segments.length];
+        int length = 0;
+        boolean hasKey = false;
+        for (int x = 0; x < this.segments.length; x++) {
+            this.isKey[x] = isKey.get(x);
+            hasKey |= this.isKey[x];
+            length += this.isKey[x] ? 16 : this.segments[x].length();
+        }
+        this.error = error;
+        this.length = length;
+        this.constant = hasKey || error != null ? null : this.segments.length == 0 ? "" : this.segments[0];
+    }
+
+    public String getPattern() {
+        return this.pattern;
+    }
+
+    public String apply(Map<String, ? extends Supplier<String>> tokens) {
+        if (constant != null)
+            return constant;
+
+        StringBuilder buf = new StringBuilder(length);
+        for (int x = 0; x < segments.length; x++) {
+            if (isKey[x]) {
+                Supplier<String> token = tokens.get(segments[x]);
+                if (token == null)
+                    throw new IllegalArgumentException("Illegal pattern: " + pattern + " Missing Key: " + segments[x]);
+                buf.append(token.get());
+            } else {
+                buf.append(segments[x]);
+            }
+        }
+
+        if (error != null)
+            throw new IllegalArgumentException(error);
+
+        return buf.toString();
+    }
+}
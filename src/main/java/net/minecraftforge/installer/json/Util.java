@@ -18,6 +18,7 @@ import java.util.function.Supplier;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import net.minecraftforge.installer.DownloadUtils;
+import net.minecraftforge.installer.Resources;
 
 public class Util {
     public static Gson GSON = new GsonBuilder().setPrettyPrinting()
@@ -25,12 +26,15 @@ public class Util {
             .create();
 
     public static InstallV1 loadInstallProfile() {
-        byte[] data = null;
-        try (InputStream stream = Util.class.getResourceAsStream("/install_profile.json")) {
-            data = readFully(stream);
+        try (InputStream stream = Resources.open("/install_profile.json")) {
+            return loadInstallProfile(stream);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    public static InstallV1 loadInstallProfile(InputStream stream) throws IOException {
+        byte[] data = readFully(stream);
         Spec spec = GSON.fromJson(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Spec.class);
         switch (spec.getSpec()) {
             case 0: return new InstallV1(GSON.fromJson(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Install.class));
@@ -52,7 +56,7 @@ public class Util {
     }
 
     public static Version loadVersion(Install profile) {
-        try (InputStream stream = Util.class.getResourceAsStream(profile.getJson())) {
+        try (InputStream stream = Resources.open(profile.getJson())) {
             return GSON.fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), Version.class);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -100,48 +104,12 @@ public class Util {
         return entryBuffer.toByteArray();
     }
 
+    /*
+     * Replaces {KEY} with the value of that token, see TokenTemplate for the full syntax.
+     * The pattern is only parsed the first time it's seen.
+     */
     public static String replaceTokens(Map<String, ? extends Supplier<String>> tokens, String value) {
-        StringBuilder buf = new StringBuilder();
-
-        for (int x = 0; x < value.length(); x++) {
-            char c = value.charAt(x);
-            if (c == '\\') {
-                if (x == value.length() - 1)
-                    throw new IllegalArgumentException("Illegal pattern (Bad escape): " + value);
-                buf.append(value.charAt(++x));
-            } else if (c == '{' || c ==  '\'') {
-                StringBuilder key = new StringBuilder();
-                for (int y = x + 1; y <= value.length(); y++) {
-                    if (y == value.length())
-                        throw new IllegalArgumentException("Illegal pattern (Unclosed " + c + "): " + value);
-                    char d = value.charAt(y);
-                    if (d == '\\') {
-                        if (y == value.length() - 1)
-                            throw new IllegalArgumentException("Illegal pattern (Bad escape): " + value);
-                        key.append(value.charAt(++y));
-                    } else if (c == '{' && d == '}') {
-                        x = y;
-                        break;
-                    } else if (c == '\'' && d == '\'') {
-                        x = y;
-                        break;
-                    } else
-                        key.append(d);
-                }
-                if (c == '\'')
-                    buf.append(key);
-                else {
-                    Supplier<String> token = tokens.get(key.toString());
-                    if (token == null)
-                        throw new IllegalArgumentException("Illegal pattern: " + value + " Missing Key: " + key);
-                    buf.append(token.get());
-                }
-            } else {
-                buf.append(c);
-            }
-        }
-
-        return buf.toString();
+        return TokenTemplate.compile(value).apply(tokens);
     }
 
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.test;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * The original Util.replaceTokens, which parsed the pattern on every call.
+ * TestTokens checks TokenTemplate gives the same results, and TokenBenchmark compares against it.
+ */
+public class LegacyTokens {
+    public static String replaceTokens(Map<String, ? extends Supplier<String>> tokens, String value) {
+        StringBuilder buf = new StringBuilder();
+
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '\\') {
+                if (x == value.length() - 1)
+                    throw new IllegalArgumentException("Illegal pattern (Bad escape): " + value);
+                buf.append(value.charAt(++x));
+            } else if (c == '{' || c ==  '\'') {
+                StringBuilder key = new StringBuilder();
+                for (int y = x + 1; y <= value.length(); y++) {
+                    if (y == value.length())
+                        throw new IllegalArgumentException("Illegal pattern (Unclosed " + c + "): " + value);
+                    char d = value.charAt(y);
+                    if (d == '\\') {
+                        if (y == value.length() - 1)
+                            throw new IllegalArgumentException("Illegal pattern (Bad escape): " + value);
+                        key.append(value.charAt(++y));
+                    } else if (c == '{' && d == '}') {
+                        x = y;
+                        break;
+                    } else if (c == '\'' && d == '\'') {
+                        x = y;
+                        break;
+                    } else
+                        key.append(d);
+                }
+                if (c == '\'')
+                    buf.append(key);
+                else {
+                    Supplier<String> token = tokens.get(key.toString());
+                    if (token == null)
+                        throw new IllegalArgumentException("Illegal pattern: " + value + " Missing Key: " + key);
+                    buf.append(token.get());
+                }
+            } else {
+                buf.append(c);
+            }
+        }
+
+        return buf.toString();
+    }
+}
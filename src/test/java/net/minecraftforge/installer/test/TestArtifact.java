@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraftforge.installer.json.Artifact;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestArtifact {
+    // Every descriptor must parse the same as it did with String.split, or fail if that did
+    @Test
+    public void testParity() {
+        String[] descriptors = {
+            "net.minecraft:client:1.20.1", "net.minecraft:client:1.20.1:mappings@txt", "de.oceanlabs.mcp:mcp_config:1.20.1-20230612.114412@zip",
+            "net.minecraftforge:forge:1.20.1-47.1.0:universal", "a:b:1@", "a:b:1:@zip", "a:b:1:c@", "a:b:1:c:d", "a:b:1:c:d@zip",
+            "a:b:1@zip:c", "a:b::c", "a::1", ":b:1", "a:b:@zip", "a:b:1::c", "a@b:c:1", "a:b:1@x@y",
+            "a:b:1:", "a:b:1::", "a:b:1:c:", "a:b:1@zip:", "a:b:1:c@zip::",
+            "", "a", "a:b", "a:b:", "a::", "::", ":::", "a:b@zip"
+        };
+        for (String descriptor : descriptors)
+            checkParity(descriptor);
+
+        // And every short mix of the characters that matter
+        char[] chars = { 'a', ':', '@' };
+        for (int length = 1; length <= 8; length++) {
+            int count = (int)Math.pow(chars.length, length);
+            for (int x = 0; x < count; x++) {
+                StringBuilder buf = new StringBuilder();
+                for (int y = 0, n = x; y < length; y++, n /= chars.length)
+                    buf.append(chars[n % chars.length]);
+                checkParity(buf.toString());
+            }
+        }
+    }
+
+    private static void checkParity(String descriptor) {
+        String expected;
+        try {
+            expected = Arrays.toString(legacy(descriptor));
+        } catch (ArrayIndexOutOfBoundsException e) {
+            expected = "Error";
+        }
+
+        String actual;
+        try {
+            Artifact artifact = Artifact.from(descriptor);
+            actual = Arrays.toString(new String[] {
+                artifact.getDomain(), artifact.getName(), artifact.getVersion(), artifact.getClassifier(),
+                artifact.getExt(), artifact.getFilename(), artifact.getPath()
+            });
+            assertEquals(descriptor, artifact.getDescriptor());
+        } catch (IllegalArgumentException e) {
+            actual = "Error";
+        }
+        assertEquals(expected, actual, descriptor);
+    }
+
+    @Test
+    public void testCached() {
+        Artifact artifact = Artifact.from("net.minecraft:client:1.20.1:slim");
+        assertSame(artifact, Artifact.from("net.minecraft:client:1.20.1:slim"));
+
+        File root = new File("libraries");
+        File path = artifact.getLocalPath(root);
+        assertEquals(new File(root, "net/minecraft/client/1.20.1/client-1.20.1-slim.jar".replace('/', File.separatorChar)), path);
+        assertSame(path, artifact.getLocalPath(new File("libraries")));
+
+        File other = new File("other");
+        assertEquals(new File(other, "net/minecraft/client/1.20.1/client-1.20.1-slim.jar".replace('/', File.separatorChar)), artifact.getLocalPath(other));
+    }
+
+    // Artifact.from as it was before, returns domain, name, version, classifier, ext, file and path
+    private static String[] legacy(String descriptor) {
+        String[] pts = descriptor.split(":");
+        String domain = pts[0];
+        String name = pts[1];
+        String ext = "jar";
+        String classifier = null;
+
+        int last = pts.length - 1;
+        int idx = pts[last].indexOf('@');
+        if (idx != -1) {
+            ext = pts[last].substring(idx + 1);
+            pts[last] = pts[last].substring(0, idx);
+        }
+
+        String version = pts[2];
+        if (pts.length > 3)
+            classifier = pts[3];
+
+        String file = name + '-' + version;
+        if (classifier != null) file += '-' + classifier;
+        file += '.' + ext;
+
+        String path = domain.replace('.', '/') + '/' + name + '/' + version + '/' + file;
+        return new String[] { domain, name, version, classifier, ext, file, path };
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraftforge.installer.HashFunction;
+import net.minecraftforge.installer.SimpleInstaller;
+import net.minecraftforge.installer.actions.InstallPlan;
+import net.minecraftforge.installer.actions.PostProcessors;
+import net.minecraftforge.installer.actions.ProgressCallback;
+import net.minecraftforge.installer.json.InstallV1;
+import net.minecraftforge.installer.json.Util;
+import net.minecraftforge.installer.json.Version;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPipeline {
+    private static final String PATCHED = "patched";
+
+    // The processor, run from a jar built out of this class
+    public static class Patcher {
+        public static void main(String[] args) throws IOException {
+            File output = new File(args[1]);
+            output.getParentFile().mkdirs();
+            Files.write(output.toPath(), PATCHED.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /*
+     * Like Forge's client, the version json lists the patched jar as a library without a url, and a processor makes it.
+     * Its download fails, but that must not stop the processor that's meant to make it while pipelining.
+     */
+    @Test
+    public void testUrllessOutput() throws IOException {
+        SimpleInstaller.headless = true;
+        Path root = Files.createTempDirectory("pipeline");
+        try {
+            File libs = root.resolve("libraries").toFile();
+            File jar = new File(libs, "test/patcher/1.0/patcher-1.0.jar");
+            jar.getParentFile().mkdirs();
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Patcher.class.getName());
+            String name = Patcher.class.getName().replace('.', '/') + ".class";
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()), manifest);
+                 InputStream in = TestPipeline.class.getClassLoader().getResourceAsStream(name)) {
+                out.putNextEntry(new JarEntry(name));
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = in.read(buf)) != -1)
+                    out.write(buf, 0, len);
+            }
+
+            String sha1 = HashFunction.SHA1.hash(PATCHED);
+            InstallV1 profile = Util.loadInstallProfile(new ByteArrayInputStream((
+                "{\"spec\": 1, \"minecraft\": \"1.0\", \"version\": \"test\", \"json\": \"/version.json\"," +
+                " \"data\": {\"PATCHED\": {\"client\": \"[test:forge:1.0:client]\", \"server\": \"[test:forge:1.0:client]\"}}," +
+                " \"processors\": [{\"jar\": \"test:patcher:1.0\", \"args\": [\"--output\", \"{PATCHED}\"], \"outputs\": {\"{PATCHED}\": \"'" + sha1 + "'\"}}]}"
+            ).getBytes(StandardCharsets.UTF_8)));
+            Version version = Util.loadVersion(new ByteArrayInputStream((
+                "{\"id\": \"test\", \"libraries\": [{\"name\": \"test:forge:1.0:client\", \"downloads\": {\"artifact\": " +
+                "{\"path\": \"test/forge/1.0/forge-1.0-client.jar\", \"url\": \"\", \"sha1\": \"" + sha1 + "\", \"size\": 7}}}]}"
+            ).getBytes(StandardCharsets.UTF_8)));
+
+            File output = new File(libs, "test/forge/1.0/forge-1.0-client.jar");
+            List<String> asked = new ArrayList<>();
+            PostProcessors.LibraryGate gate = new PostProcessors.LibraryGate() {
+                @Override
+                public boolean isReady(String path) {
+                    return true;
+                }
+
+                @Override
+                public boolean await(String path) {
+                    asked.add(path);
+                    return !path.endsWith("forge-1.0-client.jar"); // Nothing to download it from
+                }
+            };
+
+            PostProcessors processors = new PostProcessors(InstallPlan.of(profile, version, true), ProgressCallback.TO_STD_OUT);
+            Set<File> files = processors.process(libs, root.resolve("client.jar").toFile(), root.toFile(), root.resolve("installer.jar").toFile(), gate);
+            assertNotNull(files);
+            assertTrue(output.exists());
+            assertEquals(sha1, HashFunction.SHA1.hash(output));
+            // Only its jar, not its own output
+            assertEquals(1, asked.size());
+            assertTrue(asked.get(0).endsWith("patcher-1.0.jar"));
+        } finally {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
@@ -4,12 +4,16 @@
  */
 package net.minecraftforge.installer.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
 import org.junit.jupiter.api.Test;
 
+import net.minecraftforge.installer.json.TokenTemplate;
 import net.minecraftforge.installer.json.Util;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,4 +33,73 @@ public class TestTokens {
         assertEquals(Util.replaceTokens(tokens, "'test'"), "test");
         assertEquals(Util.replaceTokens(tokens, "This is a \\'test\\'"), "This is a 'test'");
     }
+
+    @Test
+    public void testErrors() {
+        Map<String, Supplier<String>> tokens = new HashMap<>();
+        tokens.put("VERSION", () -> "1.17");
+        assertEquals("Illegal pattern (Bad escape): {VERSION}\\", assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(tokens, "{VERSION}\\")).getMessage());
+        assertEquals("Illegal pattern (Unclosed {): {VERSION", assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(tokens, "{VERSION")).getMessage());
+        assertEquals("Illegal pattern (Unclosed '): 'test", assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(tokens, "'test")).getMessage());
+        assertEquals("Illegal pattern: {NAME} Missing Key: NAME", assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(tokens, "{NAME}")).getMessage());
+        // Tokens before a bad part of the pattern are still looked up first
+        assertEquals("Illegal pattern: {NAME}{VERSION Missing Key: NAME", assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(tokens, "{NAME}{VERSION")).getMessage());
+    }
+
+    @Test
+    public void testCompiled() {
+        TokenTemplate template = TokenTemplate.compile("{NAME}-{VERSION}.jar");
+        assertSame(template, TokenTemplate.compile("{NAME}-{VERSION}.jar"));
+
+        Map<String, Supplier<String>> tokens = new HashMap<>();
+        tokens.put("VERSION", () -> "1.17");
+        tokens.put("NAME", () -> "Foo");
+        assertEquals("Foo-1.17.jar", template.apply(tokens));
+        tokens.put("VERSION", () -> "1.18");
+        assertEquals("Foo-1.18.jar", template.apply(tokens));
+    }
+
+    // Every pattern must give the same result, or the same error, as the original implementation that parsed it on every call
+    @Test
+    public void testParity() {
+        Map<String, Supplier<String>> tokens = new HashMap<>();
+        tokens.put("VERSION", () -> "1.17");
+        tokens.put("NAME", () -> "Foo");
+        tokens.put("", () -> "empty");
+        tokens.put("A}B", () -> "escaped");
+        tokens.put("NULL", () -> null);
+
+        String[] patterns = {
+            "", "plain", "{VERSION}", "{NAME}-{VERSION}", "{VERSION}}", "}{", "{}", "''", "'{VERSION}'", "a'b'c",
+            "{A\\}B}", "'it\\'s'", "\\{VERSION\\}", "\\\\", "\\", "{VERSION}\\", "{", "'", "{VERSION", "'test",
+            "{{VERSION}", "{VERSION\\", "'test\\", "{MISSING}", "{MISSING}{", "{VERSION}{MISSING}'", "{NULL}",
+            "[net.minecraft:client:{VERSION}:mappings@txt]", "{ROOT}/libraries/{NAME}", "--in '{' {NAME} '}'"
+        };
+        for (String pattern : patterns) {
+            String expected;
+            try {
+                expected = LegacyTokens.replaceTokens(tokens, pattern);
+            } catch (IllegalArgumentException e) {
+                expected = "Error: " + e.getMessage();
+            }
+            // Twice so the second one comes from the cache
+            for (int x = 0; x < 2; x++) {
+                String actual;
+                try {
+                    actual = Util.replaceTokens(tokens, pattern);
+                } catch (IllegalArgumentException e) {
+                    actual = "Error: " + e.getMessage();
+                }
+                assertEquals(expected, actual, pattern);
+            }
+        }
+
+        // Suppliers are called in the same order, up to the error
+        List<String> called = new ArrayList<>();
+        Map<String, Supplier<String>> recording = new HashMap<>();
+        recording.put("A", () -> { called.add("A"); return "a"; });
+        recording.put("B", () -> { called.add("B"); return "b"; });
+        assertThrows(IllegalArgumentException.class, () -> Util.replaceTokens(recording, "{B}{A}{B}{"));
+        assertEquals(Arrays.asList("B", "A", "B"), called);
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installer.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraftforge.installer.CompressionPolicy;
+import net.minecraftforge.installer.ZipIndex;
+import net.minecraftforge.installer.ZipWriter;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestZipWriter {
+    private static final byte[] TEXT;
+    private static final byte[] RANDOM = new byte[100 * 1024];
+    static {
+        StringBuilder buf = new StringBuilder();
+        for (int x = 0; x < 5000; x++)
+            buf.append("line ").append(x).append('\n');
+        TEXT = buf.toString().getBytes(StandardCharsets.UTF_8);
+        new Random(42).nextBytes(RANDOM);
+    }
+
+    // Entries copied as is, renamed, and added, have to read back the same through ZipFile, which uses the central directory,
+    // and ZipInputStream, which only sees the local headers.
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("zipwriter").toFile();
+        try {
+            File source = new File(dir, "source.zip");
+            try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(source))) {
+                // Deflated entries written to a stream have their sizes in a data descriptor after the data
+                zout.putNextEntry(new ZipEntry("text.txt"));
+                zout.write(TEXT);
+
+                ZipEntry stored = new ZipEntry("random.bin");
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(RANDOM.length);
+                CRC32 crc = new CRC32();
+                crc.update(RANDOM);
+                stored.setCrc(crc.getValue());
+                zout.putNextEntry(stored);
+                zout.write(RANDOM);
+
+                zout.putNextEntry(new ZipEntry("folder/"));
+
+                ZipEntry extra = new ZipEntry("extra.json");
+                extra.setExtra(new byte[] { (byte)0xFE, (byte)0xCA, 2, 0, 1, 2 });
+                zout.putNextEntry(extra);
+                zout.write("{\"extra\": true}".getBytes(StandardCharsets.UTF_8));
+            }
+            assertTrue((getFirstFlags(source) & 0x08) != 0);
+
+            File added = new File(dir, "added.txt");
+            Files.write(added.toPath(), TEXT);
+
+            for (int threads : new int[] { 1, 2 }) {
+                File target = new File(dir, "target-" + threads + ".zip");
+                try (ZipIndex zin = ZipIndex.open(source);
+                     ZipWriter zout = new ZipWriter(target, threads, 1024 * 1024, new CompressionPolicy())) {
+                    zout.copy(zin, zin.get("text.txt"));
+                    zout.copy(zin, zin.get("random.bin"));
+                    zout.copy(zin, zin.get("folder/"));
+                    zout.copy(zin, zin.get("extra.json"));
+                    zout.copy(zin, zin.get("text.txt"), "renamed/text.txt");
+                    zout.copy(zin, zin.get("extra.json"), "renamed/extra.json");
+                    zout.add("added/file.txt", added);
+                    zout.add("added/random.bin", RANDOM);
+                    zout.add("added/empty.txt", new byte[0]);
+                    assertTrue(zout.contains("renamed/text.txt"));
+                }
+
+                Map<String, byte[]> expected = new LinkedHashMap<>();
+                expected.put("text.txt", TEXT);
+                expected.put("random.bin", RANDOM);
+                expected.put("folder/", new byte[0]);
+                expected.put("extra.json", "{\"extra\": true}".getBytes(StandardCharsets.UTF_8));
+                expected.put("renamed/text.txt", TEXT);
+                expected.put("renamed/extra.json", expected.get("extra.json"));
+                expected.put("added/file.txt", TEXT);
+                expected.put("added/random.bin", RANDOM);
+                expected.put("added/empty.txt", new byte[0]);
+
+                Map<String, byte[]> actual = new LinkedHashMap<>();
+                try (ZipFile zip = new ZipFile(target)) {
+                    for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                        ZipEntry entry = entries.nextElement();
+                        try (InputStream stream = zip.getInputStream(entry)) {
+                            actual.put(entry.getName(), readFully(stream));
+                        }
+                    }
+                    // Renaming drops the extra field, copying as is keeps it
+                    assertNotNull(zip.getEntry("extra.json").getExtra());
+                    assertNull(zip.getEntry("renamed/extra.json").getExtra());
+                }
+                assertContents(expected, actual, "ZipFile, " + threads + " threads");
+
+                actual.clear();
+                try (ZipInputStream zip = new ZipInputStream(new FileInputStream(target))) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null)
+                        actual.put(entry.getName(), readFully(zip));
+                }
+                assertContents(expected, actual, "ZipInputStream, " + threads + " threads");
+
+                actual.clear();
+                try (ZipIndex zip = ZipIndex.open(target)) {
+                    for (ZipIndex.Entry entry : zip.getEntries()) {
+                        try (InputStream stream = zip.open(entry)) {
+                            actual.put(entry.getName(), readFully(stream));
+                        }
+                    }
+                }
+                assertContents(expected, actual, "ZipIndex, " + threads + " threads");
+
+                // Copies have their sizes in the local header, so the descriptor flag must be gone
+                assertEquals(0, getFirstFlags(target) & 0x08);
+            }
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private static void assertContents(Map<String, byte[]> expected, Map<String, byte[]> actual, String message) {
+        assertEquals(expected.keySet().toString(), actual.keySet().toString(), message);
+        for (Map.Entry<String, byte[]> entry : expected.entrySet())
+            assertEquals(new String(entry.getValue(), StandardCharsets.ISO_8859_1), new String(actual.get(entry.getKey()), StandardCharsets.ISO_8859_1), message + ": " + entry.getKey());
+    }
+
+    // The flags in the local header of the first entry
+    private static int getFirstFlags(File zip) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(zip.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x04034b50, buf.getInt(0));
+        return buf.getShort(6) & 0xFFFF;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = stream.read(buf)) != -1)
+            out.write(buf, 0, len);
+        return out.toByteArray();
+    }
+}